@@ -0,0 +1,78 @@
+package lib.bench;
+
+import lib.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class BatchBenchmark {
+    // 多数の短い入力を1つずつ照合する場合とまとめて照合する場合を比べる
+    // 1操作はCOUNT個の入力の照合 (1入力あたりの時間は結果をCOUNTで割る)
+    static final int COUNT = 1 << 14;
+
+    @Param({"[a-z]+\\.(com|org|net)", "(a|b)*a(a|b)(a|b)(a|b)"})
+    String pattern;
+
+    String[] inputs;
+    char[] chars;
+    int[] offsets;
+    long[] result;
+    DFA dfa;
+    BatchMatcher batch;
+    BatchMatcher parallel;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        inputs = new String[COUNT];
+        offsets = new int[COUNT + 1];
+        StringBuilder packed = new StringBuilder();
+        for (int i = 0; i < COUNT; i++) {
+            inputs[i] = Patterns.input("abcm.", 4 + random.nextInt(12), random.nextLong());
+            packed.append(inputs[i]);
+            offsets[i + 1] = packed.length();
+        }
+        chars = packed.toString().toCharArray();
+        result = new long[COUNT / 64];
+        dfa = DFA.fromAST(AST.parse(pattern));
+        batch = new BatchMatcher(dfa);
+        parallel = new BatchMatcher(dfa, ForkJoinPool.commonPool(), 1 << 12);
+    }
+
+    @Benchmark
+    public int loop() {
+        int count = 0;
+        for (String input : inputs) {
+            if (dfa.match(input)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public long[] batch() {
+        batch.match(inputs, result);
+        return result;
+    }
+
+    @Benchmark
+    public long[] packed() {
+        batch.match(chars, offsets, result);
+        return result;
+    }
+
+    @Benchmark
+    public long[] parallel() {
+        parallel.match(chars, offsets, result);
+        return result;
+    }
+}
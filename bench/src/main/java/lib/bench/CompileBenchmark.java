@@ -0,0 +1,74 @@
+package lib.bench;
+
+import lib.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class CompileBenchmark {
+    // ASTから各エンジンを作るのにかかる時間
+    @Param({"a(b|c)*d", "(a|b)*a(a|b)(a|b)(a|b)(a|b)(a|b)", "keywords"})
+    String pattern;
+
+    AST ast;
+    DFA dfa;
+
+    @Setup
+    public void setup() {
+        ast = AST.parse(pattern.equals("keywords") ? Patterns.keywords(200) : pattern);
+        dfa = DFA.fromAST(ast);
+    }
+
+    @State(Scope.Thread)
+    public static class Fresh {
+        // removeEpsilonはNFAを書き換えるので、呼び出しごとに作り直す
+        NFA nfa;
+
+        @Setup(Level.Invocation)
+        public void setup(CompileBenchmark benchmark) {
+            nfa = NFA.fromAST(benchmark.ast);
+        }
+    }
+
+    @Benchmark
+    public NFA nfaFromAST() {
+        return NFA.fromAST(ast);
+    }
+
+    @Benchmark
+    public NFA removeEpsilon(Fresh fresh) {
+        fresh.nfa.removeEpsilon();
+        return fresh.nfa;
+    }
+
+    @Benchmark
+    public DFA dfaFromAST() {
+        return DFA.fromAST(ast);
+    }
+
+    @Benchmark
+    public LazyDFA lazyDFAFromAST() {
+        return LazyDFA.fromAST(ast);
+    }
+
+    @Benchmark
+    public Prog progCompile() {
+        return Prog.compile(ast);
+    }
+
+    @Benchmark
+    public Searcher searcherFromAST() {
+        return Searcher.fromAST(ast);
+    }
+
+    @Benchmark
+    public Matcher matcherCompile() {
+        return MatcherCompiler.compile(dfa);
+    }
+}
@@ -0,0 +1,102 @@
+package lib.bench;
+
+import lib.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class MatchBenchmark {
+    // 入力全体の照合にかかる時間をエンジンごとに比べる
+    // 入力はパターンの文字を無作為に並べたもの (ほとんどは最後まで読んでから不一致になる)
+    @Param({"(a|b)*a(a|b)(a|b)(a|b)", "a(b|c)*d"})
+    String pattern;
+
+    @Param({"16", "1024"})
+    int length;
+
+    String input;
+    NFA nfa;
+    NFA nfaWithoutEpsilon;
+    DFA dfa;
+    LazyDFA lazyDFA;
+    PikeVM pikeVM;
+    Matcher generated;
+    CompiledDFA compiled;
+    Pattern compiledPattern;
+    PatternSet patternSet;
+
+    @Setup
+    public void setup() throws IOException {
+        AST ast = AST.parse(pattern);
+        input = pattern.startsWith("a(") ? "a" + Patterns.input("bc", length - 2, 1) + "d" : Patterns.input("ab", length, 1);
+        nfa = NFA.fromAST(ast);
+        nfaWithoutEpsilon = NFA.fromAST(ast);
+        nfaWithoutEpsilon.removeEpsilon();
+        dfa = DFA.fromAST(ast);
+        lazyDFA = LazyDFA.fromAST(ast);
+        pikeVM = PikeVM.fromAST(ast);
+        generated = MatcherCompiler.compile(dfa);
+        compiledPattern = Pattern.compile(pattern);
+        patternSet = PatternSet.parse(List.of(pattern, "b*", "a*"));
+
+        Path path = Files.createTempFile("regj", ".dfa");
+        path.toFile().deleteOnExit();
+        CompiledDFA.write(dfa, pattern, path);
+        compiled = CompiledDFA.load(path);
+    }
+
+    @Benchmark
+    public boolean nfa() {
+        return nfa.match(input);
+    }
+
+    @Benchmark
+    public boolean nfaWithoutEpsilon() {
+        return nfaWithoutEpsilon.match(input);
+    }
+
+    @Benchmark
+    public boolean dfa() {
+        return dfa.match(input);
+    }
+
+    @Benchmark
+    public boolean lazyDFA() {
+        return lazyDFA.match(input);
+    }
+
+    @Benchmark
+    public boolean pikeVM() {
+        return pikeVM.match(input);
+    }
+
+    @Benchmark
+    public boolean generated() {
+        return generated.match(input);
+    }
+
+    @Benchmark
+    public boolean compiledDFA() {
+        return compiled.match(input);
+    }
+
+    @Benchmark
+    public boolean pattern() {
+        return compiledPattern.match(input);
+    }
+
+    @Benchmark
+    public int patternSet() {
+        return patternSet.matchFirst(input);
+    }
+}
@@ -0,0 +1,43 @@
+package lib.bench;
+
+import lib.AST;
+import lib.Optimizer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class ParseBenchmark {
+    // 構文解析と書き換えにかかる時間
+    // shortは典型的な短いパターン、longは1000語のキーワードの和と深い入れ子
+    @Param({"short", "keywords", "nested"})
+    String kind;
+
+    String pattern;
+    AST ast;
+
+    @Setup
+    public void setup() {
+        pattern = switch (kind) {
+            case "short" -> "a(b|c)*d";
+            case "keywords" -> Patterns.keywords(1000);
+            default -> "(".repeat(1000) + "a" + ")*".repeat(1000);
+        };
+        ast = AST.parse(pattern);
+    }
+
+    @Benchmark
+    public AST parse() {
+        return AST.parse(pattern);
+    }
+
+    @Benchmark
+    public AST optimize() {
+        return Optimizer.optimize(ast);
+    }
+}
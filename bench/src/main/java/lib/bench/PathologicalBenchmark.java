@@ -0,0 +1,69 @@
+package lib.bench;
+
+import lib.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class PathologicalBenchmark {
+    // バックトラックする実装では入力の長さに対して指数時間になるパターン
+    // (a*)*b を a...a (bで終わらない) に照合する
+    @Param({"16", "256", "4096"})
+    int length;
+
+    String input;
+    NFA nfa;
+    DFA dfa;
+    LazyDFA lazyDFA;
+    PikeVM pikeVM;
+    Matcher generated;
+    Searcher searcher;
+
+    @Setup
+    public void setup() {
+        AST ast = AST.parse("(a*)*b");
+        input = "a".repeat(length);
+        nfa = NFA.fromAST(ast);
+        dfa = DFA.fromAST(ast);
+        lazyDFA = LazyDFA.fromAST(ast);
+        pikeVM = PikeVM.fromAST(ast);
+        generated = MatcherCompiler.compile(dfa);
+        searcher = Searcher.fromAST(ast);
+    }
+
+    @Benchmark
+    public boolean nfa() {
+        return nfa.match(input);
+    }
+
+    @Benchmark
+    public boolean dfa() {
+        return dfa.match(input);
+    }
+
+    @Benchmark
+    public boolean lazyDFA() {
+        return lazyDFA.match(input);
+    }
+
+    @Benchmark
+    public boolean pikeVM() {
+        return pikeVM.match(input);
+    }
+
+    @Benchmark
+    public boolean generated() {
+        return generated.match(input);
+    }
+
+    @Benchmark
+    public Searcher.Match find() {
+        return searcher.find(input);
+    }
+}
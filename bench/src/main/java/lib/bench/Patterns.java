@@ -0,0 +1,45 @@
+package lib.bench;
+
+import java.util.Random;
+
+final class Patterns {
+    // ベンチマークで使うパターンと入力
+    private Patterns() {
+    }
+
+    static String keywords(int count) {
+        // count語のキーワードの和 (kw0|kw1|...)
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append('|');
+            }
+            sb.append("kw").append(i);
+        }
+        return sb.toString();
+    }
+
+    static String input(String alphabet, int length, long seed) {
+        // alphabetの文字を無作為に並べた入力
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    static String lines(int count, int length, String needle, long seed) {
+        // 長さlengthの行をcount行並べ、10行に1行はneedleを含める
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(count * (length + 1));
+        for (int i = 0; i < count; i++) {
+            String line = input("abcdefghij ", length, random.nextLong());
+            if (i % 10 == 0) {
+                line = line.substring(0, length / 2) + needle + line.substring(length / 2 + needle.length());
+            }
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+}
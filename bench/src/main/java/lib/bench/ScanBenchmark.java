@@ -0,0 +1,54 @@
+package lib.bench;
+
+import lib.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class ScanBenchmark {
+    // 大きな入力 (約8MB、80文字の行が10万行) の走査にかかる時間
+    String text;
+    ByteBuffer bytes;
+    DFA lineDFA;
+    ParallelScanner parallel;
+    Searcher searcher;
+
+    @Setup
+    public void setup() {
+        text = Patterns.lines(100_000, 80, "needle", 1);
+        bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+
+        // 行全体が needle を含むか
+        String any = "(a|b|c|d|e|f|g|h|i|j| |n|l)*";
+        lineDFA = DFA.fromAST(AST.parse(any + "needle" + any));
+        parallel = new ParallelScanner(lineDFA);
+        searcher = Searcher.fromAST(AST.parse("needle"));
+    }
+
+    @Benchmark
+    public long streamMatcher() {
+        StreamMatcher matcher = new StreamMatcher(lineDFA, (_, _, _) -> {});
+        matcher.feed(bytes.duplicate());
+        matcher.finish();
+        return matcher.matchedLines();
+    }
+
+    @Benchmark
+    public long parallelLines() {
+        return parallel.countMatchingLines(bytes);
+    }
+
+    @Benchmark
+    public List<Searcher.Match> findAll() {
+        return searcher.findAll(text);
+    }
+}
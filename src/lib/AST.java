@@ -1,9 +1,12 @@
 package lib;
 
-import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
-public sealed abstract class AST permits AST.Char, AST.Union, AST.Concat, AST.Star, AST.Group{
+public sealed abstract class AST permits AST.Char, AST.CharSet, AST.Union, AST.Concat, AST.Star, AST.Plus, AST.Optional, AST.Repeat, AST.Group{
 
     static final class Char extends AST {
         // 一文字の正規表現
@@ -14,6 +17,78 @@ public sealed abstract class AST permits AST.Char, AST.Union, AST.Concat, AST.St
             this.c = c;
         }
     }
+    static final class CharSet extends AST {
+        // 文字集合のいずれか一文字の正規表現
+        // rangesは範囲の下端と上端を交互に並べたもので、範囲は昇順で重ならず隣り合わない
+        public char[] ranges;
+
+        // よく使う文字集合 (\d, \w, \s, .)
+        static final char[] DIGIT = {'0', '9'};
+        static final char[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+        static final char[] SPACE = {'\t', '\r', ' ', ' '};
+        static final char[] ANY = {'\0', '\n' - 1, '\n' + 1, Character.MAX_VALUE};
+
+        CharSet(char[] ranges) {
+            super();
+            this.ranges = ranges;
+        }
+
+        static char[] union(List<char[]> sets) {
+            // 文字集合の和を、昇順で重ならず隣り合わない範囲の列にする
+            List<int[]> ranges = new ArrayList<>();
+            for (char[] set : sets) {
+                for (int i = 0; i < set.length; i += 2) {
+                    ranges.add(new int[]{set[i], set[i + 1]});
+                }
+            }
+            ranges.sort(Comparator.comparingInt(r -> r[0]));
+            char[] merged = new char[2 * ranges.size()];
+            int size = 0;
+            for (int[] range : ranges) {
+                if (size > 0 && range[0] <= merged[size - 1] + 1) {
+                    merged[size - 1] = (char) Math.max(merged[size - 1], range[1]);
+                } else {
+                    merged[size++] = (char) range[0];
+                    merged[size++] = (char) range[1];
+                }
+            }
+            return Arrays.copyOf(merged, size);
+        }
+
+        static char[] complement(char[] ranges) {
+            // 範囲に含まれない文字の集合
+            char[] result = new char[ranges.length + 2];
+            int size = 0;
+            int next = 0;
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (ranges[i] > next) {
+                    result[size++] = (char) next;
+                    result[size++] = (char) (ranges[i] - 1);
+                }
+                next = ranges[i + 1] + 1;
+            }
+            if (next <= Character.MAX_VALUE) {
+                result[size++] = (char) next;
+                result[size++] = Character.MAX_VALUE;
+            }
+            return Arrays.copyOf(result, size);
+        }
+
+        static boolean contains(char[] ranges, char c) {
+            // 文字cが範囲のどれかに含まれるか (二分探索)
+            int lo = 0;
+            int hi = ranges.length / 2;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (c > ranges[2 * mid + 1]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo < ranges.length / 2 && ranges[2 * lo] <= c;
+        }
+    }
     static final class Union<T1 extends AST, T2 extends AST> extends AST {
         // 正規表現t1とt2の和
         public T1 t1;
@@ -46,27 +121,238 @@ public sealed abstract class AST permits AST.Char, AST.Union, AST.Concat, AST.St
         }
     }
 
+    static final class Plus<T extends AST> extends AST {
+        // 正規表現tの1回以上の繰り返し
+        public T t;
+
+        Plus(T t) {
+            super();
+            this.t = t;
+        }
+    }
+    static final class Optional<T extends AST> extends AST {
+        // 正規表現tまたは空文字列
+        public T t;
+
+        Optional(T t) {
+            super();
+            this.t = t;
+        }
+    }
+
+    static final class Repeat<T extends AST> extends AST {
+        // 正規表現tのmin回以上max回以下の繰り返し (maxがUNBOUNDEDなら上限なし)
+        // 書ける回数はMAX_COUNTまで
+        static final int UNBOUNDED = -1;
+        static final int MAX_COUNT = 1000000;
+
+        // 繰り返しを展開してよい大きさ (展開後のASTのノード数) の既定値
+        // これを超える繰り返しは、中身が文字か文字集合ならPike VMが回数を数えて照合する
+        public static final int DEFAULT_UNROLL_LIMIT = 100;
+        // 回数を数えられない繰り返し (中身が文字・文字集合でないもの) は、展開後の大きさがunrollLimitを超えても
+        // これまでは展開する (それより大きいものはResourceLimitException)
+        public static final int MAX_UNROLLED_SIZE = 10000;
+
+        public T t;
+        public int min;
+        public int max;
+
+        Repeat(T t, int min, int max) {
+            super();
+            this.t = t;
+            this.min = min;
+            this.max = max;
+        }
+
+        long unrolledSize() {
+            // 展開したときのASTのノード数
+            return (long) size(t) * (max == UNBOUNDED ? min + 1 : max);
+        }
+
+        boolean counted(int unrollLimit) {
+            // Pike VMが展開せずに回数を数える繰り返しか
+            return (t instanceof Char || t instanceof CharSet) && unrolledSize() > unrollLimit;
+        }
+
+        static int maxUnrolledSize(int unrollLimit) {
+            // 展開してよい大きさの上限
+            return Math.max(unrollLimit, MAX_UNROLLED_SIZE);
+        }
+
+        static boolean unrollable(AST ast, int unrollLimit) {
+            // ast中に回数を数える繰り返しがなく、NFAで照合できるか
+            ArrayDeque<AST> stack = new ArrayDeque<>();
+            stack.push(ast);
+            while (!stack.isEmpty()) {
+                switch (stack.pop()) {
+                    case Char _, CharSet _ -> {
+                    }
+                    case Union<?, ?> t -> {
+                        stack.push(t.t1);
+                        stack.push(t.t2);
+                    }
+                    case Concat<?, ?> t -> {
+                        stack.push(t.t1);
+                        stack.push(t.t2);
+                    }
+                    case Star<?> t -> stack.push(t.t);
+                    case Plus<?> t -> stack.push(t.t);
+                    case Optional<?> t -> stack.push(t.t);
+                    case Repeat<?> t -> {
+                        if (t.counted(unrollLimit)) {
+                            return false;
+                        }
+                        stack.push(t.t);
+                    }
+                    case Group<?> t -> stack.push(t.t);
+                }
+            }
+            return true;
+        }
+
+        static int size(AST ast) {
+            // ASTのノード数 (グループは数えない)
+            int size = 0;
+            ArrayDeque<AST> stack = new ArrayDeque<>();
+            stack.push(ast);
+            while (!stack.isEmpty()) {
+                switch (stack.pop()) {
+                    case Char _, CharSet _ -> size++;
+                    case Union<?, ?> t -> {
+                        size++;
+                        stack.push(t.t1);
+                        stack.push(t.t2);
+                    }
+                    case Concat<?, ?> t -> {
+                        size++;
+                        stack.push(t.t1);
+                        stack.push(t.t2);
+                    }
+                    case Star<?> t -> {
+                        size++;
+                        stack.push(t.t);
+                    }
+                    case Plus<?> t -> {
+                        size++;
+                        stack.push(t.t);
+                    }
+                    case Optional<?> t -> {
+                        size++;
+                        stack.push(t.t);
+                    }
+                    case Repeat<?> t -> {
+                        size = (int) Math.min(Integer.MAX_VALUE, size + 1 + t.unrolledSize());
+                    }
+                    case Group<?> t -> stack.push(t.t);
+                }
+            }
+            return size;
+        }
+    }
+
     static final class Group<T extends AST> extends AST {
         // 正規表現tをグループ化
+        // indexはキャプチャの番号 (左括弧の順に1から)
         public T t;
+        public final int index;
 
         Group(T t) {
+            // 番号のないグループ (キャプチャしない)
+            this(t, 0);
+        }
+
+        Group(T t, int index) {
             super();
             this.t = t;
+            this.index = index;
+        }
+
+        static int count(AST ast) {
+            // ast中のグループの数 (最大の番号)
+            int count = 0;
+            ArrayDeque<AST> stack = new ArrayDeque<>();
+            stack.push(ast);
+            while (!stack.isEmpty()) {
+                switch (stack.pop()) {
+                    case Char _, CharSet _ -> {
+                    }
+                    case Union<?, ?> t -> {
+                        stack.push(t.t1);
+                        stack.push(t.t2);
+                    }
+                    case Concat<?, ?> t -> {
+                        stack.push(t.t1);
+                        stack.push(t.t2);
+                    }
+                    case Star<?> t -> stack.push(t.t);
+                    case Plus<?> t -> stack.push(t.t);
+                    case Optional<?> t -> stack.push(t.t);
+                    case Repeat<?> t -> stack.push(t.t);
+                    case Group<?> t -> {
+                        count = Math.max(count, t.index);
+                        stack.push(t.t);
+                    }
+                }
+            }
+            return count;
         }
     }
 
     public String toString() {
         // 正規表現の文字列化
         return switch (this) {
-            case Char c -> String.valueOf(c.c);
+            case Char c -> _escape(c.c, META);
+            case CharSet t -> {
+                if (Arrays.equals(t.ranges, CharSet.ANY)) {
+                    yield ".";
+                }
+                StringBuilder sb = new StringBuilder("[");
+                for (int i = 0; i < t.ranges.length; i += 2) {
+                    sb.append(_escape(t.ranges[i], CLASS_META));
+                    if (t.ranges[i + 1] > t.ranges[i] + 1) {
+                        sb.append('-');
+                    }
+                    if (t.ranges[i + 1] > t.ranges[i]) {
+                        sb.append(_escape(t.ranges[i + 1], CLASS_META));
+                    }
+                }
+                yield sb.append(']').toString();
+            }
             case Union<?, ?> t -> STR."\{t.t1.toString()}|\{t.t2.toString()}";
-            case Concat<?, ?> t -> t.t1.toString() + t.t2.toString();
-            case Star<?> t -> STR."\{t.t.toString()}*";
+            // グループを外したASTでも元の構造が読めるように、必要な括弧を補う
+            case Concat<?, ?> t -> _wrap(t.t1, t.t1 instanceof Union) + _wrap(t.t2, t.t2 instanceof Union);
+            case Star<?> t -> STR."\{_wrap(t.t, _compound(t.t))}*";
+            case Plus<?> t -> STR."\{_wrap(t.t, _compound(t.t))}+";
+            case Optional<?> t -> STR."\{_wrap(t.t, _compound(t.t))}?";
+            case Repeat<?> t -> _wrap(t.t, _compound(t.t)) + (t.min == t.max ? STR."{\{t.min}}"
+                    : t.max == Repeat.UNBOUNDED ? STR."{\{t.min},}" : STR."{\{t.min},\{t.max}}");
             case Group<?> t -> STR."(\{t.t.toString()})";
         };
     }
 
+    // 文字クラスの外と中でエスケープが必要な文字
+    private static final String META = "\\()|*+?[.{";
+    private static final String CLASS_META = "\\]^-";
+
+    private static String _escape(char c, String meta) {
+        return switch (c) {
+            case '\n' -> "\\n";
+            case '\t' -> "\\t";
+            case '\r' -> "\\r";
+            case '\f' -> "\\f";
+            default -> meta.indexOf(c) >= 0 ? "\\" + c : String.valueOf(c);
+        };
+    }
+
+    private static boolean _compound(AST t) {
+        // 量指定子をつけるときに括弧が必要か
+        return t instanceof Union || t instanceof Concat || t instanceof Star || t instanceof Plus || t instanceof Optional || t instanceof Repeat;
+    }
+
+    private static String _wrap(AST t, boolean parenthesize) {
+        return parenthesize ? STR."(\{t.toString()})" : t.toString();
+    }
+
     public boolean equals(Object obj) {
         // 正規表現の等価性判定
         if(!(obj instanceof AST ast)){
@@ -74,77 +360,257 @@ public sealed abstract class AST permits AST.Char, AST.Union, AST.Concat, AST.St
         }
         return switch (this) {
             case Char c -> ast instanceof Char && c.c == ((Char) ast).c;
+            case CharSet t -> ast instanceof CharSet && Arrays.equals(t.ranges, ((CharSet) ast).ranges);
             case Union<?, ?> t -> ast instanceof Union && t.t1.equals(((Union<?, ?>) ast).t1) && t.t2.equals(((Union<?, ?>) ast).t2);
             case Concat<?, ?> t -> ast instanceof Concat && t.t1.equals(((Concat<?, ?>) ast).t1) && t.t2.equals(((Concat<?, ?>) ast).t2);
             case Star<?> t -> ast instanceof Star && t.t.equals(((Star<?>) ast).t);
+            case Plus<?> t -> ast instanceof Plus && t.t.equals(((Plus<?>) ast).t);
+            case Optional<?> t -> ast instanceof Optional && t.t.equals(((Optional<?>) ast).t);
+            case Repeat<?> t -> ast instanceof Repeat<?> r && t.min == r.min && t.max == r.max && t.t.equals(r.t);
             case Group<?> t -> (ast instanceof Group && t.t.equals(((Group<?>) ast).t)) || t.t.equals(ast);
         };
     }
 
-    private static AST _concat(AST t1, AST t2) {
-        // 連結の省略
-        if (t1 == null) {
-            return t2;
+    public int hashCode() {
+        // equalsと整合するハッシュ値 (グループは中身と同じ値になる)
+        return switch (this) {
+            case Char c -> c.c;
+            case CharSet t -> Arrays.hashCode(t.ranges);
+            case Union<?, ?> t -> 31 * (31 * 1 + t.t1.hashCode()) + t.t2.hashCode();
+            case Concat<?, ?> t -> 31 * (31 * 2 + t.t1.hashCode()) + t.t2.hashCode();
+            case Star<?> t -> 31 * 3 + t.t.hashCode();
+            case Plus<?> t -> 31 * 4 + t.t.hashCode();
+            case Optional<?> t -> 31 * 5 + t.t.hashCode();
+            case Repeat<?> t -> 31 * (31 * (31 * 6 + t.t.hashCode()) + t.min) + t.max;
+            case Group<?> t -> t.t.hashCode();
+        };
+    }
+
+    private static final class Frame {
+        // 構文解析中の括弧1つ分の状態
+        // open: 開き括弧の位置 (一番外側は-1)
+        // alternatives: '|'で区切られた済みの選択肢
+        // sequence: 今読んでいる選択肢の連結
+        final int open;
+        final int group;
+        final List<AST> alternatives = new ArrayList<>();
+        AST sequence;
+
+        Frame(int open, int group) {
+            this.open = open;
+            this.group = group;
         }
-        if (t2 == null) {
-            return t1;
+
+        void append(AST t) {
+            // 連結の省略
+            sequence = sequence == null ? t : new Concat<>(sequence, t);
         }
-        return new Concat<>(t1, t2);
-    }
 
-    private static AST _parse(String re, AST ast){
-        // 正規表現の構文解析
-        // re: これから構文解析する正規表現
-        // ast: 現在までの構文解析結果
+        void repeat(String re, int index, int min, int max) {
+            // 直前の1要素に量指定子 (*, +, ?, {m,n}) をつける
+            // 連結されている場合は、後ろの正規表現だけにつける
+            AST last = sequence instanceof Concat<?, ?> t ? t.t2 : sequence;
+            switch (last) {
+                case null -> throw new RegexSyntaxException("Nothing to repeat", re, index);
+                case Star<?> _ -> throw new RegexSyntaxException("Nothing to repeat", re, index);
+                case Plus<?> _ -> throw new RegexSyntaxException("Nothing to repeat", re, index);
+                case Optional<?> _ -> throw new RegexSyntaxException("Nothing to repeat", re, index);
+                case Repeat<?> _ -> throw new RegexSyntaxException("Nothing to repeat", re, index);
+                default -> {
+                    AST repeated;
+                    if (min == 0 && max == Repeat.UNBOUNDED) {
+                        repeated = new Star<>(last);
+                    } else if (min == 1 && max == Repeat.UNBOUNDED) {
+                        repeated = new Plus<>(last);
+                    } else if (min == 0 && max == 1) {
+                        repeated = new Optional<>(last);
+                    } else if (min == 1 && max == 1) {
+                        repeated = last;
+                    } else {
+                        repeated = new Repeat<>(last, min, max);
+                    }
+                    sequence = sequence instanceof Concat<?, ?> t ? new Concat<>(t.t1, repeated) : repeated;
+                }
+            }
+        }
 
-        if (re.isEmpty()) {
+        void alternate(String re, int index) {
+            if (sequence == null) {
+                throw new RegexSyntaxException("Empty alternative", re, index);
+            }
+            alternatives.add(sequence);
+            sequence = null;
+        }
+
+        AST finish(String re, int index) {
+            // 選択肢を右結合の和にまとめる (a|b|c は a|(b|c))
+            alternate(re, index);
+            AST ast = alternatives.getLast();
+            for (int i = alternatives.size() - 2; i >= 0; i--) {
+                ast = new Union<>(alternatives.get(i), ast);
+            }
             return ast;
         }
-        char c = re.charAt(0);
-        return switch (c) {
-            case '(' -> {
-                // 括弧の対応を取る
-                int id = 0;
-                int count = 1;
-                while (count > 0) {
-                    id++;
-                    if (id >= re.length()) {
-                        throw new RuntimeException("Unmatched parentheses");
-                    }
-                    if (re.charAt(id) == '(') {
-                        count++;
-                    } else if (re.charAt(id) == ')') {
-                        count--;
+    }
+
+    public static AST parse(String re) {
+        // 正規表現の構文解析
+        // 文字, 文字クラス [...] [^...], 任意の一文字 ., エスケープ \d \w \s (大文字は否定) \n \t \r \f \記号,
+        // 量指定子 * + ? {m} {m,} {m,n}, 和 |, 括弧 () を扱う
+        // 括弧は左括弧の順に1から番号をつけ、キャプチャの番号にする
+        // 先頭から1文字ずつ読み、括弧の入れ子は再帰ではなくスタックで扱うので、
+        // 正規表現の長さに比例する時間で済み、深い入れ子でもスタックがあふれない
+        ArrayDeque<Frame> stack = new ArrayDeque<>();
+        Frame frame = new Frame(-1, 0);
+        int groups = 0;
+        for (int i = 0; i < re.length(); i++) {
+            char c = re.charAt(i);
+            switch (c) {
+                case '(' -> {
+                    stack.push(frame);
+                    frame = new Frame(i, ++groups);
+                }
+                case ')' -> {
+                    if (frame.open < 0) {
+                        throw new RegexSyntaxException("Unmatched parentheses", re, i);
                     }
+                    AST t = frame.finish(re, i);
+                    int group = frame.group;
+                    frame = stack.pop();
+                    frame.append(new Group<>(t, group));
                 }
+                case '|' -> frame.alternate(re, i);
+                case '*' -> frame.repeat(re, i, 0, Repeat.UNBOUNDED);
+                case '+' -> frame.repeat(re, i, 1, Repeat.UNBOUNDED);
+                case '?' -> frame.repeat(re, i, 0, 1);
+                case '{' -> {
+                    int close = re.indexOf('}', i);
+                    int[] bounds = _bounds(re, i, close);
+                    frame.repeat(re, i, bounds[0], bounds[1]);
+                    i = close;
+                }
+                case '.' -> frame.append(new CharSet(CharSet.ANY));
+                case '[' -> i = _class(re, i, frame);
+                case '\\' -> {
+                    frame.append(_atom(_escape(re, i)));
+                    i++;
+                }
+                default -> frame.append(new Char(c));
+            }
+        }
+        if (frame.open >= 0) {
+            throw new RegexSyntaxException("Unmatched parentheses", re, frame.open);
+        }
+        return frame.finish(re, re.length());
+    }
 
-                // 括弧内の正規表現を再帰的に構文解析
-                AST t = _parse(re.substring(1, id), null);
-
-                // 括弧内の正規表現をグループ化
-                yield _parse(re.substring(id+1), _concat(ast, new Group<>(t)));
+    private static int _class(String re, int open, Frame frame) {
+        // re[open]の'['から始まる文字クラスを読んでframeに加え、対応する']'の位置を返す
+        // 範囲 a-z、否定 [^...]、エスケープを書ける。'-'は先頭か末尾なら普通の文字
+        int i = open + 1;
+        boolean negated = i < re.length() && re.charAt(i) == '^';
+        if (negated) {
+            i++;
+        }
+        List<char[]> sets = new ArrayList<>();
+        while (true) {
+            if (i >= re.length()) {
+                throw new RegexSyntaxException("Unclosed character class", re, open);
+            }
+            if (re.charAt(i) == ']') {
+                break;
+            }
+            int start = i;
+            char[] low = _member(re, i);
+            i += re.charAt(i) == '\\' ? 2 : 1;
+            if (i + 1 < re.length() && re.charAt(i) == '-' && re.charAt(i + 1) != ']') {
+                char[] high = _member(re, i + 1);
+                i += re.charAt(i + 1) == '\\' ? 3 : 2;
+                if (!_single(low) || !_single(high) || low[0] > high[0]) {
+                    throw new RegexSyntaxException("Invalid range", re, start);
+                }
+                sets.add(new char[]{low[0], high[0]});
+            } else {
+                sets.add(low);
             }
-            case ')' -> ast;
-            case '|' -> {
-                AST t = _parse(re.substring(1), null);
-                yield new Union<>(ast, t);
+        }
+        char[] ranges = CharSet.union(sets);
+        if (negated) {
+            ranges = CharSet.complement(ranges);
+        }
+        if (ranges.length == 0) {
+            throw new RegexSyntaxException("Empty character class", re, open);
+        }
+        frame.append(_atom(ranges));
+        return i;
+    }
+
+    private static int[] _bounds(String re, int open, int close) {
+        // re[open]の'{'からre[close]の'}'までの繰り返し回数 {m} {m,} {m,n} を読む
+        String[] parts = close < 0 ? new String[0] : re.substring(open + 1, close).split(",", -1);
+        if (parts.length < 1 || parts.length > 2 || !_count(parts[0]) || (parts.length == 2 && !parts[1].isEmpty() && !_count(parts[1]))) {
+            throw new RegexSyntaxException("Invalid repetition", re, open);
+        }
+        int min = Integer.parseInt(parts[0]);
+        int max = parts.length == 1 ? min : parts[1].isEmpty() ? Repeat.UNBOUNDED : Integer.parseInt(parts[1]);
+        if (max != Repeat.UNBOUNDED && (max < min || max == 0)) {
+            throw new RegexSyntaxException("Invalid repetition", re, open);
+        }
+        return new int[]{min, max};
+    }
+
+    private static boolean _count(String s) {
+        // MAX_COUNT以下の10進数か
+        if (s.isEmpty() || s.length() > 7) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
             }
-            case '*' -> switch (ast) {
-                case null -> throw new RuntimeException("Nothing to repeat");
-                case Star<?> _ -> throw new RuntimeException("Nothing to repeat");
+        }
+        return Integer.parseInt(s) <= Repeat.MAX_COUNT;
+    }
 
-                // 連結されている場合は、後ろの正規表現を繰り返す
-                case Concat<?, ?> t -> _parse(re.substring(1),new Concat<>(t.t1, new Star<>(t.t2)));
+    private static char[] _member(String re, int index) {
+        // 文字クラスの要素1つ (文字かエスケープ)
+        char c = re.charAt(index);
+        return c == '\\' ? _escape(re, index) : new char[]{c, c};
+    }
 
-                // それ以外の場合は、正規表現を繰り返す
-                default -> _parse(re.substring(1), new Star<>(ast));
-            };
-            default -> _parse(re.substring(1), _concat(ast, new Char(c)));
+    private static char[] _escape(String re, int index) {
+        // re[index]の'\'から始まるエスケープが表す文字集合
+        if (index + 1 >= re.length()) {
+            throw new RegexSyntaxException("Incomplete escape", re, index);
+        }
+        char c = re.charAt(index + 1);
+        return switch (c) {
+            case 'd' -> CharSet.DIGIT;
+            case 'D' -> CharSet.complement(CharSet.DIGIT);
+            case 'w' -> CharSet.WORD;
+            case 'W' -> CharSet.complement(CharSet.WORD);
+            case 's' -> CharSet.SPACE;
+            case 'S' -> CharSet.complement(CharSet.SPACE);
+            case 'n' -> new char[]{'\n', '\n'};
+            case 't' -> new char[]{'\t', '\t'};
+            case 'r' -> new char[]{'\r', '\r'};
+            case 'f' -> new char[]{'\f', '\f'};
+            default -> {
+                // 英数字以外は記号そのもの
+                if (Character.isLetterOrDigit(c)) {
+                    throw new RegexSyntaxException("Unknown escape", re, index);
+                }
+                yield new char[]{c, c};
+            }
         };
     }
 
-    public static AST parse(String re) {
-        // 正規表現の構文解析
-        return _parse(re, null);
+    private static boolean _single(char[] ranges) {
+        return ranges.length == 2 && ranges[0] == ranges[1];
+    }
+
+    private static AST _atom(char[] ranges) {
+        // 一文字だけの集合はCharにする
+        return _single(ranges) ? new Char(ranges[0]) : new CharSet(ranges);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,337 @@
+package lib;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public final class BatchMatcher {
+    // 1つの正規表現で多数の短い入力をまとめて照合する
+    // 結果はi番目の入力が一致すればi番目のビットを立てたビット列で返す
+    //
+    // Patternで作ったときは、まず入力ごとに接頭辞などを調べ、残った入力だけを照合する
+    // DFAで照合するときは、4つの入力を交互に1文字ずつ進める
+    // 4本の遷移表の読み出しは互いに依存しないので、1本ずつ読むよりメモリの待ち時間が重なる
+    // DFAのないPatternは、区間ごとにPatternの遅延DFAを1つ借りて使い回す
+    // 遅延DFAがNFAのシミュレーションに切り替わると (Patternがそれ以降Pike VMで照合するのと同じく)、
+    // 残りは作業領域を持つPike VMを区間ごとに1つだけ作って使い回す
+    //
+    // poolを渡すと、入力をchunk個ずつの区間に分けて並列に照合する
+    // 区間の境界は64の倍数にそろえるので、区間ごとに結果のlongの要素が重ならない
+    public static final int DEFAULT_CHUNK = 1 << 12;
+    private static final int LANES = 4;
+
+    final DFA dfa;
+    // DFAのないPattern (DFAで照合するときはnull)
+    final Pattern pattern;
+    final Prefilter prefilter;
+    final ForkJoinPool pool;
+    final int chunk;
+
+    public BatchMatcher(DFA dfa){
+        this(dfa, null, DEFAULT_CHUNK);
+    }
+
+    public BatchMatcher(DFA dfa, ForkJoinPool pool, int chunk){
+        this(dfa, null, null, pool, chunk);
+    }
+
+    public BatchMatcher(Pattern pattern){
+        this(pattern, null, DEFAULT_CHUNK);
+    }
+
+    public BatchMatcher(Pattern pattern, ForkJoinPool pool, int chunk){
+        // 1回の照合の手間の上限はPatternと同じ
+        this(pattern.dfa(), pattern.dfa() == null ? pattern : null, pattern.prefilter(), pool, chunk);
+    }
+
+    private BatchMatcher(DFA dfa, Pattern pattern, Prefilter prefilter, ForkJoinPool pool, int chunk){
+        this.dfa = dfa;
+        this.pattern = pattern;
+        this.prefilter = prefilter;
+        this.pool = pool;
+        this.chunk = Math.max(64, chunk & ~63);
+    }
+
+    public BitSet match(CharSequence[] inputs){
+        long[] result = new long[(inputs.length + 63) >>> 6];
+        match(inputs, result);
+        return BitSet.valueOf(result);
+    }
+
+    public BitSet match(List<? extends CharSequence> inputs){
+        return match(inputs.toArray(new CharSequence[0]));
+    }
+
+    public BitSet match(char[] chars, int[] offsets){
+        long[] result = new long[(offsets.length + 62) >>> 6];
+        match(chars, offsets, result);
+        return BitSet.valueOf(result);
+    }
+
+    public void match(CharSequence[] inputs, long[] result){
+        // inputs[i]が一致すればresultのiビット目を立てる (resultの他のビットは0にする)
+        _clear(result, inputs.length);
+        _run(new Inputs(inputs, null, null), inputs.length, result);
+    }
+
+    public void match(char[] chars, int[] offsets, long[] result){
+        // i番目の入力はchars[offsets[i]]からchars[offsets[i+1]-1]まで (offsetsの長さは入力の数+1)
+        // 1つの配列に詰めた入力を、CharSequenceを作らずに照合する
+        int count = offsets.length - 1;
+        _clear(result, count);
+        _run(new Inputs(null, chars, offsets), count, result);
+    }
+
+    private static void _clear(long[] result, int count){
+        if(result.length < (count + 63) >>> 6){
+            throw new IllegalArgumentException(STR."Result needs \{(count + 63) >>> 6} words but has \{result.length}");
+        }
+        Arrays.fill(result, 0, (count + 63) >>> 6, 0L);
+    }
+
+    private record Inputs(CharSequence[] sequences, char[] chars, int[] offsets) {
+        // 照合する入力 (sequencesか、charsとoffsetsのどちらか)
+    }
+
+    private void _run(Inputs inputs, int count, long[] result){
+        if(pool == null || count <= chunk){
+            _range(inputs, 0, count, result);
+        } else {
+            pool.invoke(new Range(inputs, 0, count, result));
+        }
+    }
+
+    private void _range(Inputs inputs, int from, int to, long[] result){
+        // inputsのfromからto-1までを照合する
+        // 接頭辞などで落ちなかった入力の番号をitemsに集める
+        Slice slice = new Slice(inputs.chars);
+        int[] items = new int[to - from];
+        int count = 0;
+        for(int i = from; i < to; i++){
+            if(prefilter == null || prefilter.mayMatch(_input(inputs, i, slice))){
+                items[count++] = i;
+            }
+        }
+        if(dfa == null){
+            _lazy(inputs, items, count, slice, result);
+        } else if(inputs.sequences != null){
+            _dfa(inputs.sequences, items, count, result);
+        } else {
+            _dfa(inputs.chars, inputs.offsets, items, count, result);
+        }
+    }
+
+    private static CharSequence _input(Inputs inputs, int i, Slice slice){
+        // i番目の入力 (詰めた入力ならsliceを付け替えて返す)
+        if(inputs.sequences != null){
+            return inputs.sequences[i];
+        }
+        slice.set(inputs.offsets[i], inputs.offsets[i + 1]);
+        return slice;
+    }
+
+    private void _dfa(char[] chars, int[] offsets, int[] items, int count, long[] result){
+        int[] table = dfa.table;
+        int k = dfa.classCount;
+        char[][] pages = dfa.classes.pages;
+        boolean[] accept = dfa.accept;
+        int i = 0;
+        for(; i + LANES <= count; i += LANES){
+            // 4つの入力のうち最も短いものの長さまでは4本を一緒に進める
+            int x0 = items[i], x1 = items[i + 1], x2 = items[i + 2], x3 = items[i + 3];
+            int p0 = offsets[x0], p1 = offsets[x1], p2 = offsets[x2], p3 = offsets[x3];
+            int e0 = offsets[x0 + 1], e1 = offsets[x1 + 1], e2 = offsets[x2 + 1], e3 = offsets[x3 + 1];
+            int n = Math.min(Math.min(e0 - p0, e1 - p1), Math.min(e2 - p2, e3 - p3));
+            int s0 = dfa.initial, s1 = s0, s2 = s0, s3 = s0;
+            for(int j = 0; j < n; j++){
+                char c0 = chars[p0 + j], c1 = chars[p1 + j], c2 = chars[p2 + j], c3 = chars[p3 + j];
+                s0 = table[s0 * k + pages[c0 >>> 8][c0 & 0xFF]];
+                s1 = table[s1 * k + pages[c1 >>> 8][c1 & 0xFF]];
+                s2 = table[s2 * k + pages[c2 >>> 8][c2 & 0xFF]];
+                s3 = table[s3 * k + pages[c3 >>> 8][c3 & 0xFF]];
+            }
+            // 残りは1本ずつ
+            if(accept[_finish(chars, p0 + n, e0, s0)]){
+                result[x0 >>> 6] |= 1L << x0;
+            }
+            if(accept[_finish(chars, p1 + n, e1, s1)]){
+                result[x1 >>> 6] |= 1L << x1;
+            }
+            if(accept[_finish(chars, p2 + n, e2, s2)]){
+                result[x2 >>> 6] |= 1L << x2;
+            }
+            if(accept[_finish(chars, p3 + n, e3, s3)]){
+                result[x3 >>> 6] |= 1L << x3;
+            }
+        }
+        for(; i < count; i++){
+            int x = items[i];
+            if(accept[_finish(chars, offsets[x], offsets[x + 1], dfa.initial)]){
+                result[x >>> 6] |= 1L << x;
+            }
+        }
+    }
+
+    private int _finish(char[] chars, int from, int to, int state){
+        // stateからchars[from..to)を読んだ後の状態
+        int[] table = dfa.table;
+        int k = dfa.classCount;
+        char[][] pages = dfa.classes.pages;
+        for(int j = from; j < to && state != DFA.DEAD; j++){
+            char c = chars[j];
+            state = table[state * k + pages[c >>> 8][c & 0xFF]];
+        }
+        return state;
+    }
+
+    private void _dfa(CharSequence[] inputs, int[] items, int count, long[] result){
+        int[] table = dfa.table;
+        int k = dfa.classCount;
+        char[][] pages = dfa.classes.pages;
+        boolean[] accept = dfa.accept;
+        int i = 0;
+        for(; i + LANES <= count; i += LANES){
+            int x0 = items[i], x1 = items[i + 1], x2 = items[i + 2], x3 = items[i + 3];
+            CharSequence i0 = inputs[x0], i1 = inputs[x1], i2 = inputs[x2], i3 = inputs[x3];
+            int n = Math.min(Math.min(i0.length(), i1.length()), Math.min(i2.length(), i3.length()));
+            int s0 = dfa.initial, s1 = s0, s2 = s0, s3 = s0;
+            for(int j = 0; j < n; j++){
+                char c0 = i0.charAt(j), c1 = i1.charAt(j), c2 = i2.charAt(j), c3 = i3.charAt(j);
+                s0 = table[s0 * k + pages[c0 >>> 8][c0 & 0xFF]];
+                s1 = table[s1 * k + pages[c1 >>> 8][c1 & 0xFF]];
+                s2 = table[s2 * k + pages[c2 >>> 8][c2 & 0xFF]];
+                s3 = table[s3 * k + pages[c3 >>> 8][c3 & 0xFF]];
+            }
+            if(accept[_finish(i0, n, s0)]){
+                result[x0 >>> 6] |= 1L << x0;
+            }
+            if(accept[_finish(i1, n, s1)]){
+                result[x1 >>> 6] |= 1L << x1;
+            }
+            if(accept[_finish(i2, n, s2)]){
+                result[x2 >>> 6] |= 1L << x2;
+            }
+            if(accept[_finish(i3, n, s3)]){
+                result[x3 >>> 6] |= 1L << x3;
+            }
+        }
+        for(; i < count; i++){
+            int x = items[i];
+            if(accept[_finish(inputs[x], 0, dfa.initial)]){
+                result[x >>> 6] |= 1L << x;
+            }
+        }
+    }
+
+    private int _finish(CharSequence s, int from, int state){
+        int[] table = dfa.table;
+        int k = dfa.classCount;
+        char[][] pages = dfa.classes.pages;
+        for(int j = from; j < s.length() && state != DFA.DEAD; j++){
+            char c = s.charAt(j);
+            state = table[state * k + pages[c >>> 8][c & 0xFF]];
+        }
+        return state;
+    }
+
+    private void _lazy(Inputs inputs, int[] items, int count, Slice slice, long[] result){
+        // Patternの遅延DFAを借りて使い回し、NFAのシミュレーションに切り替わったら残りはPike VMで照合する
+        // 回数を数える繰り返しがあって遅延DFAで照合しないPatternは、はじめからPike VMで照合する
+        LazyDFA lazy = pattern.lazy();
+        PikeVM vm = null;
+        try {
+            for(int i = 0; i < count; i++){
+                int x = items[i];
+                CharSequence s = _input(inputs, x, slice);
+                boolean matched;
+                if(lazy != null){
+                    matched = lazy.match(s);
+                    if(lazy.fallback()){
+                        pattern.release(lazy);
+                        lazy = null;
+                    }
+                } else {
+                    if(vm == null){
+                        vm = new PikeVM(pattern.prog());
+                        vm.maxSteps = pattern.limits().maxSteps();
+                    }
+                    matched = vm.match(s);
+                }
+                if(matched){
+                    result[x >>> 6] |= 1L << x;
+                }
+            }
+        } finally {
+            if(lazy != null){
+                pattern.release(lazy);
+            }
+        }
+    }
+
+    private static final class Slice implements CharSequence {
+        // chars[from..to)を指すCharSequence (指す範囲を付け替えて使い回す)
+        final char[] chars;
+        int from;
+        int length;
+
+        Slice(char[] chars){
+            this.chars = chars;
+        }
+
+        void set(int from, int to){
+            this.from = from;
+            this.length = to - from;
+        }
+
+        @Override
+        public int length(){
+            return length;
+        }
+
+        @Override
+        public char charAt(int index){
+            return chars[from + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end){
+            return new String(chars, from + start, end - start);
+        }
+
+        @Override
+        public String toString(){
+            return new String(chars, from, length);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class Range extends RecursiveAction {
+        final Inputs inputs;
+        final int from;
+        final int to;
+        final long[] result;
+
+        Range(Inputs inputs, int from, int to, long[] result){
+            this.inputs = inputs;
+            this.from = from;
+            this.to = to;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute(){
+            if(to - from <= chunk){
+                _range(inputs, from, to, result);
+                return;
+            }
+            // 真ん中に近い64の倍数で分ける
+            int mid = from + (((to - from) >>> 1) & ~63);
+            if(mid == from){
+                mid += 64;
+            }
+            invokeAll(new Range(inputs, from, mid, result), new Range(inputs, mid, to, result));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package lib;
+
+import java.util.*;
+
+final class CharClasses {
+    // 文字の同値類
+    // パターン中でいつも同じ扱いを受ける文字を1つのクラスにまとめ、遷移表の列をクラスの数まで減らす
+    // クラス0はパターンに現れない文字すべてをまとめた「その他」のクラス
+    //
+    // 文字からクラスへの表は2段で、上位8ビットでページを選び下位8ビットでページ内のクラスを引く
+    // パターンに現れない上位8ビットのページはすべて同じページを共有する
+    final char[][] pages;
+    final char[] representatives;
+    final int count;
+
+    private CharClasses(char[][] pages, char[] representatives){
+        this.pages = pages;
+        this.representatives = representatives;
+        this.count = representatives.length;
+    }
+
+    static CharClasses fromAST(AST ast){
+        return fromAST(List.of(ast));
+    }
+
+    static CharClasses fromAST(List<AST> asts){
+        // 正規表現に現れる文字からクラスを作る
+        List<char[]> sets = new ArrayList<>();
+        for(AST ast : asts){
+            _collect(ast, sets);
+        }
+        return of(sets);
+    }
+
+    private static void _collect(AST ast, List<char[]> sets){
+        // 左から順に文字集合を集める (再帰せずスタックでたどるので、長い正規表現でもスタックがあふれない)
+        ArrayDeque<AST> stack = new ArrayDeque<>();
+        stack.push(ast);
+        while(!stack.isEmpty()){
+            switch (stack.pop()) {
+                case AST.Char c -> sets.add(new char[]{c.c, c.c});
+                case AST.CharSet t -> sets.add(t.ranges);
+                case AST.Union<?, ?> t -> {
+                    stack.push(t.t2);
+                    stack.push(t.t1);
+                }
+                case AST.Concat<?, ?> t -> {
+                    stack.push(t.t2);
+                    stack.push(t.t1);
+                }
+                case AST.Star<?> t -> stack.push(t.t);
+                case AST.Plus<?> t -> stack.push(t.t);
+                case AST.Optional<?> t -> stack.push(t.t);
+                case AST.Repeat<?> t -> stack.push(t.t);
+                case AST.Group<?> t -> stack.push(t.t);
+            }
+        }
+    }
+
+    static CharClasses fromNFA(NFA nfa){
+        // NFAの遷移に現れる文字からクラスを作る
+        return of(nfa.ranges());
+    }
+
+    static CharClasses of(List<char[]> sets){
+        // 文字集合の一覧からクラスを作る
+        // 各文字集合は範囲の下端と上端を交互に並べたもの
+        // どの文字集合に含まれるかが同じ文字を同じクラスにする
+        TreeSet<Integer> bounds = new TreeSet<>();
+        for(char[] set : sets){
+            for(int i = 0; i < set.length; i += 2){
+                bounds.add((int) set[i]);
+                bounds.add(set[i + 1] + 1);
+            }
+        }
+        bounds.add(0);
+        bounds.add(Character.MAX_VALUE + 1);
+        int[] cuts = bounds.stream().mapToInt(Integer::intValue).toArray();
+
+        // 境界で区切った区間ごとに、それを含む文字集合の番号を集める
+        List<List<Integer>> signatures = new ArrayList<>();
+        for(int i = 0; i + 1 < cuts.length; i++){
+            signatures.add(new ArrayList<>());
+        }
+        for(int k = 0; k < sets.size(); k++){
+            char[] set = sets.get(k);
+            for(int i = 0; i < set.length; i += 2){
+                int from = Arrays.binarySearch(cuts, set[i]);
+                int to = Arrays.binarySearch(cuts, set[i + 1] + 1);
+                for(int j = from; j < to; j++){
+                    List<Integer> signature = signatures.get(j);
+                    if(signature.isEmpty() || signature.getLast() != k){
+                        signature.add(k);
+                    }
+                }
+            }
+        }
+
+        // 同じ文字集合の組に含まれる区間を同じクラスにする
+        HashMap<List<Integer>, Integer> ids = new HashMap<>();
+        ids.put(List.of(), 0);
+        List<Character> representatives = new ArrayList<>();
+        representatives.add(null);
+        char[] empty = new char[256];
+        char[][] pages = new char[256][];
+        Arrays.fill(pages, empty);
+        for(int j = 0; j + 1 < cuts.length; j++){
+            Integer id = ids.get(signatures.get(j));
+            if(id == null){
+                id = representatives.size();
+                ids.put(signatures.get(j), id);
+                representatives.add((char) cuts[j]);
+            }
+            if(id == 0){
+                if(representatives.getFirst() == null){
+                    representatives.set(0, (char) cuts[j]);
+                }
+                continue;
+            }
+            for(int c = cuts[j]; c < cuts[j + 1]; c++){
+                if(pages[c >>> 8] == empty){
+                    pages[c >>> 8] = new char[256];
+                }
+                pages[c >>> 8][c & 0xFF] = (char) (int) id;
+            }
+        }
+        if(representatives.size() > Character.MAX_VALUE){
+            throw new RuntimeException("Too many character classes");
+        }
+
+        // その他のクラスに属する文字がなければ、代表には使われない文字を入れておく
+        char[] result = new char[representatives.size()];
+        for(int i = 0; i < result.length; i++){
+            Character c = representatives.get(i);
+            result[i] = c == null ? '\0' : c;
+        }
+        return new CharClasses(pages, result);
+    }
+
+    int classOf(char c){
+        return pages[c >>> 8][c & 0xFF];
+    }
+
+    char representative(int c){
+        // クラスcに属する文字の1つ
+        return representatives[c];
+    }
+}
@@ -0,0 +1,229 @@
+package lib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+public final class CompiledDFA {
+    // DFAやPatternSetをファイルに書き出したもの
+    // 読み込みはファイルをメモリにマップするだけで、照合はマップしたバッファを直接引く
+    // 読み込んだ後は変更しないので、複数のスレッドで共有してよい (同じファイルを読む複数のJVMはページキャッシュを共有する)
+    //
+    // 形式 (整数はすべてリトルエンディアン、各領域は4バイト境界から始まる)
+    //   ヘッダ     MAGIC, VERSION, 状態数, クラス数, 初期状態, 正規表現の数, ページ数, 各領域の位置(6個), 全体の長さ
+    //   ページ索引 文字の上位8ビットからページ番号への表 (u16 × 256)
+    //   ページ     各ページの下位8ビットからクラスへの表 (u16 × 256 × ページ数)
+    //   遷移表     table[状態 * クラス数 + クラス] (i32 × 状態数 × クラス数)
+    //   番号索引   状態sで受理される正規表現の番号は番号[索引[s]]から番号[索引[s+1]-1]まで (i32 × (状態数 + 1))
+    //   番号       受理される正規表現の番号を状態ごとに昇順に並べたもの (i32)
+    //   付加情報   書き出したときに渡した文字列 (UTF-8の長さ i32 + 本体)
+    static final int MAGIC = 0x444A4752; // "RGJD"
+    static final int VERSION = 1;
+    private static final int HEADER = 14 * 4;
+
+    private final ByteBuffer buffer;
+    private final int stateCount;
+    private final int classCount;
+    private final int initial;
+    private final int patternCount;
+    private final int pageIndex;
+    private final int pages;
+    private final int table;
+    private final int matchIndex;
+    private final int matches;
+    private final String source;
+
+    private CompiledDFA(ByteBuffer buffer) throws IOException {
+        // ヘッダを検査して各領域の位置を読む
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(buffer.limit() < HEADER || buffer.getInt(0) != MAGIC){
+            throw new IOException("Not a compiled automaton");
+        }
+        if(buffer.getInt(4) != VERSION){
+            throw new IOException(STR."Unsupported format version \{buffer.getInt(4)}");
+        }
+        stateCount = buffer.getInt(8);
+        classCount = buffer.getInt(12);
+        initial = buffer.getInt(16);
+        patternCount = buffer.getInt(20);
+        int pageCount = buffer.getInt(24);
+        pageIndex = buffer.getInt(28);
+        pages = buffer.getInt(32);
+        table = buffer.getInt(36);
+        matchIndex = buffer.getInt(40);
+        matches = buffer.getInt(44);
+        int metadata = buffer.getInt(48);
+        if(buffer.getInt(52) != buffer.limit()
+                || pages - pageIndex != 2 * 256
+                || table - pages != 2 * 256 * pageCount
+                || matchIndex - table != 4L * stateCount * classCount
+                || matches - matchIndex != 4L * (stateCount + 1)
+                || metadata < matches || initial < 0 || initial >= stateCount){
+            throw new IOException("Corrupted compiled automaton");
+        }
+        byte[] bytes = new byte[buffer.getInt(metadata)];
+        buffer.get(metadata + 4, bytes);
+        source = new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static CompiledDFA load(Path path) throws IOException {
+        // ファイルを読み取り専用でマップする
+        // マップはチャネルを閉じた後も有効なままで、バッファがGCされるまで残る
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            return new CompiledDFA(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static CompiledDFA of(ByteBuffer buffer) throws IOException {
+        return new CompiledDFA(buffer.slice());
+    }
+
+    public static void write(DFA dfa, String source, Path path) throws IOException {
+        // 受理状態は正規表現0を受理する状態として書く
+        int[][] ids = new int[dfa.stateCount()][];
+        for(int s = 0; s < ids.length; s++){
+            ids[s] = dfa.accept[s] ? new int[]{0} : new int[0];
+        }
+        _write(_encode(dfa.classes, dfa.table, dfa.initial, ids, 1, source), path);
+    }
+
+    public static void write(PatternSet set, String source, Path path) throws IOException {
+        // 遅延DFAで照合するPatternSetには書き出す遷移表がない
+        if(set.lazy()){
+            throw new IllegalArgumentException("PatternSet has too many states to write");
+        }
+        _write(_encode(set.classes, set.table, set.initial, set.matches, set.size, source), path);
+    }
+
+    private static void _write(ByteBuffer buffer, Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)){
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static ByteBuffer _encode(CharClasses classes, int[] table, int initial, int[][] ids, int patternCount, String source){
+        // 同じページを共有している上位8ビットには同じページ番号を振る
+        IdentityHashMap<char[], Integer> pageIds = new IdentityHashMap<>();
+        List<char[]> pageList = new ArrayList<>();
+        int[] index = new int[256];
+        for(int h = 0; h < 256; h++){
+            Integer id = pageIds.get(classes.pages[h]);
+            if(id == null){
+                id = pageList.size();
+                pageIds.put(classes.pages[h], id);
+                pageList.add(classes.pages[h]);
+            }
+            index[h] = id;
+        }
+
+        int stateCount = ids.length;
+        int matchCount = 0;
+        for(int[] row : ids){
+            matchCount += row.length;
+        }
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        int pageIndex = HEADER;
+        int pages = pageIndex + 2 * 256;
+        int tableOffset = pages + 2 * 256 * pageList.size();
+        int matchIndex = Math.toIntExact(tableOffset + 4L * table.length);
+        int matches = Math.toIntExact(matchIndex + 4L * (stateCount + 1));
+        int metadata = Math.toIntExact(matches + 4L * matchCount);
+        int length = Math.toIntExact(metadata + 4L + bytes.length);
+
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        for(int v : new int[]{MAGIC, VERSION, stateCount, classes.count, initial, patternCount, pageList.size(),
+                pageIndex, pages, tableOffset, matchIndex, matches, metadata, length}){
+            buffer.putInt(v);
+        }
+        for(int h = 0; h < 256; h++){
+            buffer.putChar((char) index[h]);
+        }
+        for(char[] page : pageList){
+            for(char c : page){
+                buffer.putChar(c);
+            }
+        }
+        for(int next : table){
+            buffer.putInt(next);
+        }
+        int offset = 0;
+        for(int[] row : ids){
+            buffer.putInt(offset);
+            offset += row.length;
+        }
+        buffer.putInt(offset);
+        for(int[] row : ids){
+            for(int id : row){
+                buffer.putInt(id);
+            }
+        }
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+        return buffer.flip();
+    }
+
+    private int _run(CharSequence s){
+        // 入力全体を読んだ後の状態
+        ByteBuffer b = buffer;
+        int state = initial;
+        for(int i = 0; i < s.length() && state != DFA.DEAD; i++){
+            char c = s.charAt(i);
+            int page = b.getChar(pageIndex + 2 * (c >>> 8));
+            int cls = b.getChar(pages + 2 * ((page << 8) | (c & 0xFF)));
+            state = b.getInt(table + 4 * (state * classCount + cls));
+        }
+        return state;
+    }
+
+    private int _matchStart(int state){
+        return buffer.getInt(matchIndex + 4 * state);
+    }
+
+    private int _matchEnd(int state){
+        return buffer.getInt(matchIndex + 4 * (state + 1));
+    }
+
+    public boolean match(CharSequence s){
+        // 入力全体がいずれかの正規表現に一致するか
+        int state = _run(s);
+        return _matchEnd(state) > _matchStart(state);
+    }
+
+    public int[] matchAll(CharSequence s){
+        // 入力全体に一致する正規表現の番号をすべて昇順で返す
+        int state = _run(s);
+        int from = _matchStart(state);
+        int[] ids = new int[_matchEnd(state) - from];
+        for(int i = 0; i < ids.length; i++){
+            ids[i] = buffer.getInt(matches + 4 * (from + i));
+        }
+        return ids;
+    }
+
+    public int matchFirst(CharSequence s){
+        // 入力全体に一致する正規表現のうち番号が最も小さいもの (なければ-1)
+        int state = _run(s);
+        int from = _matchStart(state);
+        return _matchEnd(state) > from ? buffer.getInt(matches + 4 * from) : -1;
+    }
+
+    public String source(){
+        // 書き出したときに渡した付加情報
+        return source;
+    }
+
+    public int stateCount(){
+        return stateCount;
+    }
+
+    public int patternCount(){
+        return patternCount;
+    }
+}
@@ -1,4 +1,300 @@
 package lib;
 
+import java.util.*;
+
 public final class DFA extends NFA {
+    // 部分集合構成法で得られる決定性有限オートマトン
+    // 状態は0からの連番で、状態0は死状態(どの入力でも抜け出せない非受理状態)
+    static final int DEAD = 0;
+    static final int INITIAL = 1;
+
+    public record MinimizeStats(int statesBefore, int statesAfter, long nanos) {
+    }
+
+    CharClasses classes;
+    int classCount;
+    int[] table;
+    boolean[] accept;
+    int initial;
+    MinimizeStats minimizeStats;
+
+    private DFA(NFA nfa){
+        super(nfa);
+    }
+
+    public static DFA fromAST(AST ast){
+        ast = Optimizer.optimize(ast);
+        DFA dfa = fromNFA(NFA.fromAST(ast), CharClasses.fromAST(ast));
+        dfa.minimize();
+        return dfa;
+    }
+
+    public static DFA fromNFA(NFA nfa){
+        return fromNFA(nfa, CharClasses.fromNFA(nfa));
+    }
+
+    static DFA fromNFA(NFA nfa, CharClasses classes){
+        return fromNFA(nfa, classes, Integer.MAX_VALUE);
+    }
+
+    static DFA fromNFA(NFA nfa, CharClasses classes, int maxStates){
+        // 状態数がmaxStatesを超えるときはnull
+        List<BitSet> sets = new ArrayList<>();
+        int[] table = determinize(nfa, classes, sets, maxStates);
+        if(table == null){
+            return null;
+        }
+
+        // 遷移表の列は文字ではなく文字のクラスごとに持つ
+        DFA dfa = new DFA(nfa);
+        dfa.classes = classes;
+        dfa.classCount = classes.count;
+        dfa.table = table;
+        dfa.initial = INITIAL;
+        dfa.accept = new boolean[sets.size()];
+        for(int s = 0; s < sets.size(); s++){
+            dfa.accept[s] = sets.get(s).get(nfa.end);
+        }
+        return dfa;
+    }
+
+    static int[] determinize(NFA nfa, CharClasses classes, List<BitSet> sets, int maxStates){
+        // 部分集合構成法
+        // NFAの状態集合(ノードidのBitSet)からDFAの状態番号への対応を作りながら幅優先で探索する
+        // 状態0は死状態、状態1は初期状態で、setsには各状態のNFAの状態集合が入る
+        // 状態数がmaxStatesを超えたらnullを返す
+        HashMap<BitSet, Integer> ids = new HashMap<>();
+        List<int[]> rows = new ArrayList<>();
+
+        BitSet dead = new BitSet();
+        ids.put(dead, DEAD);
+        sets.add(dead);
+        BitSet first = new BitSet();
+        first.set(nfa.start);
+        first = nfa.closure(first);
+        ids.put(first, INITIAL);
+        sets.add(first);
+
+        for(int s = 0; s < sets.size(); s++){
+            BitSet set = sets.get(s);
+            int[] row = new int[classes.count];
+            for(int c = 0; c < classes.count; c++){
+                BitSet next = nfa.closure(nfa.step(set, classes.representative(c)));
+                Integer id = ids.get(next);
+                if(id == null){
+                    if(sets.size() == maxStates){
+                        return null;
+                    }
+                    id = sets.size();
+                    ids.put(next, id);
+                    sets.add(next);
+                }
+                row[c] = id;
+            }
+            rows.add(row);
+        }
+
+        // 遷移表を一次元の配列に詰める
+        int[] table = new int[rows.size() * classes.count];
+        for(int s = 0; s < rows.size(); s++){
+            System.arraycopy(rows.get(s), 0, table, s * classes.count, classes.count);
+        }
+        return table;
+    }
+
+    public MinimizeStats minimize(){
+        // Hopcroftの分割統合法で等価な状態をまとめる
+        long begin = System.nanoTime();
+        int n = accept.length;
+        int k = classCount;
+        int[] label = new int[n];
+        for(int s = 0; s < n; s++){
+            label[s] = accept[s] ? 1 : 0;
+        }
+        int[] renumber = partition(table, k, label, 2);
+        int states = 0;
+        for(int t : renumber){
+            states = Math.max(states, t + 1);
+        }
+        int[] newTable = new int[states * k];
+        boolean[] newAccept = new boolean[states];
+        for(int s = 0; s < n; s++){
+            int t = renumber[s];
+            for(int c = 0; c < k; c++){
+                newTable[t * k + c] = renumber[table[s * k + c]];
+            }
+            newAccept[t] = accept[s];
+        }
+        table = newTable;
+        accept = newAccept;
+        initial = renumber[initial];
+
+        minimizeStats = new MinimizeStats(n, states, System.nanoTime() - begin);
+        return minimizeStats;
+    }
+
+    static int[] partition(int[] table, int k, int[] label, int labels){
+        // Hopcroftの分割統合法
+        // 遷移表table (クラス数k) の状態を、ラベル(0からlabels-1)が同じで、どの入力でも同じラベルの状態に行き着くものどうしにまとめる
+        // 各状態の新しい状態番号を返す (死状態を含むブロックを0番にし、残りは元の状態の順に番号を振る)
+        int n = label.length;
+
+        // 逆向きの遷移 (クラスcで状態tに入る状態の一覧) をクラス・遷移先ごとに並べる
+        int[] inverseStart = new int[n * k + 1];
+        for(int s = 0; s < n; s++){
+            for(int c = 0; c < k; c++){
+                inverseStart[c * n + table[s * k + c] + 1]++;
+            }
+        }
+        for(int i = 0; i < n * k; i++){
+            inverseStart[i + 1] += inverseStart[i];
+        }
+        int[] inverse = new int[n * k];
+        int[] fill = Arrays.copyOf(inverseStart, n * k);
+        for(int s = 0; s < n; s++){
+            for(int c = 0; c < k; c++){
+                inverse[fill[c * n + table[s * k + c]]++] = s;
+            }
+        }
+
+        // 分割: ブロックbの状態はelements[first[b]]からelements[past[b]-1]まで
+        // 最初はラベルごとのブロック
+        int[] elements = new int[n];
+        int[] location = new int[n];
+        int[] blockOf = new int[n];
+        int[] first = new int[n];
+        int[] past = new int[n];
+        int[] marked = new int[n];
+        int blocks = 0;
+        int size = 0;
+        for(int l = 0; l < labels; l++){
+            int from = size;
+            for(int s = 0; s < n; s++){
+                if(label[s] == l){
+                    elements[size] = s;
+                    location[s] = size;
+                    blockOf[s] = blocks;
+                    size++;
+                }
+            }
+            if(size > from){
+                first[blocks] = from;
+                past[blocks] = size;
+                blocks++;
+            }
+        }
+
+        // 分割に使う(ブロック, クラス)の組
+        boolean[] pending = new boolean[n * k];
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        for(int b = 0; b < blocks; b++){
+            for(int c = 0; c < k; c++){
+                pending[b * k + c] = true;
+                work.add(b * k + c);
+            }
+        }
+
+        int[] splitter = new int[n];
+        int[] touched = new int[n];
+        while(!work.isEmpty()){
+            int item = work.poll();
+            int b = item / k;
+            int c = item % k;
+            pending[item] = false;
+
+            // クラスcでブロックbに入る状態に印をつける
+            // 印のついた状態はそれぞれのブロックの先頭に寄せる
+            int count = 0;
+            for(int i = first[b]; i < past[b]; i++){
+                splitter[count++] = elements[i];
+            }
+            int touchedCount = 0;
+            for(int i = 0; i < count; i++){
+                int t = splitter[i];
+                for(int j = inverseStart[c * n + t]; j < inverseStart[c * n + t + 1]; j++){
+                    int s = inverse[j];
+                    int y = blockOf[s];
+                    if(location[s] < first[y] + marked[y]){
+                        continue;
+                    }
+                    if(marked[y] == 0){
+                        touched[touchedCount++] = y;
+                    }
+                    int swap = elements[first[y] + marked[y]];
+                    elements[location[s]] = swap;
+                    location[swap] = location[s];
+                    elements[first[y] + marked[y]] = s;
+                    location[s] = first[y] + marked[y];
+                    marked[y]++;
+                }
+            }
+
+            // 一部だけ印のついたブロックを分ける
+            for(int i = 0; i < touchedCount; i++){
+                int y = touched[i];
+                int m = marked[y];
+                marked[y] = 0;
+                if(m == past[y] - first[y]){
+                    continue;
+                }
+                int z = blocks++;
+                first[z] = first[y];
+                past[z] = first[y] + m;
+                first[y] = past[z];
+                for(int j = first[z]; j < past[z]; j++){
+                    blockOf[elements[j]] = z;
+                }
+                for(int d = 0; d < k; d++){
+                    // 未処理の組はそのまま両方を、処理済みなら小さい方だけを加える
+                    if(pending[y * k + d]){
+                        pending[z * k + d] = true;
+                        work.add(z * k + d);
+                    } else {
+                        int smaller = past[z] - first[z] <= past[y] - first[y] ? z : y;
+                        pending[smaller * k + d] = true;
+                        work.add(smaller * k + d);
+                    }
+                }
+            }
+        }
+
+        int[] renumber = new int[blocks];
+        Arrays.fill(renumber, -1);
+        renumber[blockOf[DEAD]] = DEAD;
+        int states = 1;
+        for(int s = 0; s < n; s++){
+            if(renumber[blockOf[s]] < 0){
+                renumber[blockOf[s]] = states++;
+            }
+        }
+        int[] result = new int[n];
+        for(int s = 0; s < n; s++){
+            result[s] = renumber[blockOf[s]];
+        }
+        return result;
+    }
+
+    public MinimizeStats minimizeStats(){
+        // 最後に行った最小化の結果 (最小化していなければnull)
+        return minimizeStats;
+    }
+
+    public int stateCount(){
+        return accept.length;
+    }
+
+    @Override
+    public boolean match(CharSequence s){
+        return accept[step(initial, s)];
+    }
+
+    int step(int state, CharSequence s){
+        // stateからsを読んだ後の状態 (入力を断片に分けて読むときは、前の断片の後の状態から続ける)
+        char[][] pages = classes.pages;
+        for(int i = 0; i < s.length() && state != DEAD; i++){
+            char c = s.charAt(i);
+            state = table[state * classCount + pages[c >>> 8][c & 0xFF]];
+        }
+        return state;
+    }
 }
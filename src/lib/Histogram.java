@@ -0,0 +1,86 @@
+package lib;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public final class Histogram {
+    // 負でない値の分布を数える、ロックを使わないヒストグラム
+    // HdrHistogramと同じく、2のべきごとの区間をさらにSUB個に等分したバケットで数える
+    // 値はバケットの幅の分だけ丸められ、相対誤差は1/SUB以下になる
+    // 記録はAtomicLongArrayへの加算だけなので、複数のスレッドから同時に記録してよい
+    static final int SUB_BITS = 5;
+    static final int SUB = 1 << (SUB_BITS - 1);
+
+    private final AtomicLongArray counts = new AtomicLongArray(bucketOf(Long.MAX_VALUE) + 1);
+
+    static int bucketOf(long value){
+        // 2^SUB_BITS未満の値はそのまま、それ以上は上位SUB_BITSビットと桁数からバケットを決める
+        if(value < (1L << SUB_BITS)){
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB + (int) (value >>> shift) - SUB;
+    }
+
+    static long lowestOf(int bucket){
+        // バケットに入る最小の値
+        if(bucket < (1 << SUB_BITS)){
+            return bucket;
+        }
+        int shift = bucket / SUB - 1;
+        return (long) (bucket % SUB + SUB) << shift;
+    }
+
+    static long highestOf(int bucket){
+        // バケットに入る最大の値
+        return bucket + 1 < (bucketOf(Long.MAX_VALUE) + 1) ? lowestOf(bucket + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    public void record(long value){
+        counts.incrementAndGet(bucketOf(Math.max(0, value)));
+    }
+
+    public long count(){
+        long count = 0;
+        for(int i = 0; i < counts.length(); i++){
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long valueAtPercentile(double percentile){
+        // 記録した値のうち小さい方からpercentile%の位置にある値 (バケットの上端に丸める、記録がなければ0)
+        long[] snapshot = new long[counts.length()];
+        long count = 0;
+        for(int i = 0; i < snapshot.length; i++){
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if(count == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+        for(int i = 0; i < snapshot.length; i++){
+            rank -= snapshot[i];
+            if(rank <= 0){
+                return highestOf(i);
+            }
+        }
+        return highestOf(snapshot.length - 1);
+    }
+
+    public long max(){
+        // 記録した最大の値 (バケットの上端に丸める、記録がなければ0)
+        for(int i = counts.length() - 1; i >= 0; i--){
+            if(counts.get(i) > 0){
+                return highestOf(i);
+            }
+        }
+        return 0;
+    }
+
+    public void reset(){
+        for(int i = 0; i < counts.length(); i++){
+            counts.set(i, 0);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package lib;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public final class Instrumentation {
+    // 照合を計測する層
+    // wrapで包んだMatcherの照合ごとに、回数・一致数・文字数・時間の分布・NFAの状態数・遅延DFAのキャッシュミスを
+    // パターンの名前ごとのPatternStatsに記録し、リスナーとJFRのイベント(regj.Match)にも知らせる
+    // 照合が例外で終わったときも (上限を超えた、取り消されたなど)、そこまでの値を失敗として記録してから例外を投げる
+    // 計測しないMatcherには何の手間もかからない
+    private final ConcurrentHashMap<String, PatternStats> stats = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<MatchListener> listeners = new CopyOnWriteArrayList<>();
+
+    public Matcher wrap(String name, Matcher matcher){
+        // 同じ名前で包んだMatcherは同じPatternStatsに記録する
+        return new Instrumented(stats.computeIfAbsent(name, PatternStats::new), matcher);
+    }
+
+    public Matcher wrap(Pattern pattern){
+        return wrap(pattern.pattern(), pattern);
+    }
+
+    public void addListener(MatchListener listener){
+        listeners.add(listener);
+    }
+
+    public void removeListener(MatchListener listener){
+        listeners.remove(listener);
+    }
+
+    public PatternStats stats(String name){
+        // 名前nameのパターンの統計 (なければnull)
+        return stats.get(name);
+    }
+
+    public List<PatternStats> all(){
+        // すべてのパターンの統計を、照合にかかった時間の合計が大きい順に並べたもの
+        List<PatternStats> all = new ArrayList<>(stats.values());
+        all.sort(Comparator.comparingLong(PatternStats::totalNanos).reversed());
+        return all;
+    }
+
+    private final class Instrumented implements Matcher {
+        final PatternStats stats;
+        final Matcher matcher;
+
+        Instrumented(PatternStats stats, Matcher matcher){
+            this.stats = stats;
+            this.matcher = matcher;
+        }
+
+        @Override
+        public boolean match(CharSequence s){
+            // 使われていないイベントの生成はJITが取り除く
+            MatchEvent event = new MatchEvent();
+            event.begin();
+            long start = System.nanoTime();
+            long[] counts = new long[2];
+            boolean matched = false;
+            Throwable failure = null;
+            try {
+                matched = _match(s, counts);
+                return matched;
+            } catch (Throwable e) {
+                failure = e;
+                throw e;
+            } finally {
+                _record(event, s.length(), matched, failure, System.nanoTime() - start, counts[0], counts[1]);
+            }
+        }
+
+        private boolean _match(CharSequence s, long[] counts){
+            // 照合し、たどったNFAの状態の数をcounts[0]に、遅延DFAのキャッシュミスをcounts[1]に足す (例外で終わっても足す)
+            switch (matcher) {
+                case Pattern pattern -> {
+                    return pattern.match(s, counts);
+                }
+                case PikeVM vm -> {
+                    long before = vm.visited;
+                    try {
+                        return vm.match(s);
+                    } finally {
+                        counts[0] += vm.visited - before;
+                    }
+                }
+                case LazyDFA dfa -> {
+                    long before = dfa.misses();
+                    try {
+                        return dfa.match(s);
+                    } finally {
+                        counts[1] += dfa.misses() - before;
+                    }
+                }
+                default -> {
+                    return matcher.match(s);
+                }
+            }
+        }
+
+        private void _record(MatchEvent event, int length, boolean matched, Throwable failure, long nanos, long states, long cacheMisses){
+            stats.record(length, matched, failure != null, nanos, states, cacheMisses);
+            for(MatchListener listener : listeners){
+                if(failure == null){
+                    listener.onMatch(stats, length, matched, nanos, states, cacheMisses);
+                } else {
+                    listener.onFailure(stats, length, nanos, states, cacheMisses, failure);
+                }
+            }
+            event.end();
+            if(event.shouldCommit()){
+                event.pattern = stats.name();
+                event.length = length;
+                event.matched = matched;
+                event.outcome = failure == null ? MatchEvent.COMPLETED : failure.getClass().getName();
+                event.states = states;
+                event.cacheMisses = cacheMisses;
+                event.commit();
+            }
+        }
+    }
+}
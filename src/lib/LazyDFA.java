@@ -0,0 +1,205 @@
+package lib;
+
+import java.util.*;
+
+public final class LazyDFA extends NFA {
+    // 入力が到達した状態だけを作る遅延DFA
+    // 作った状態はメモリ上限つきのキャッシュに置き、満杯になったらキャッシュを空にして作り直す
+    // 空にする回数が上限を超えたら、以降はNFAのシミュレーションで照合する
+    // maxStepsは、キャッシュにない遷移を作るたびにNFAのノード数を、NFAのシミュレーションでは状態の数を数える
+    public static final long DEFAULT_CACHE_BYTES = 1 << 20;
+    public static final int DEFAULT_MAX_FLUSHES = 16;
+
+    public record CacheStats(long hits, long misses, long flushes, int states, boolean fallback) {
+    }
+
+    static final int DEAD = 0;
+    static final int INITIAL = 1;
+    private static final int UNKNOWN = -1;
+
+    CharClasses classes;
+    int classCount;
+    int capacity;
+    int maxFlushes;
+
+    private HashMap<BitSet, Integer> ids;
+    private ArrayList<BitSet> sets;
+    private int[] table;
+    private boolean[] accept;
+
+    private long hits;
+    private long misses;
+    private long flushes;
+    private boolean fallback;
+    // NFAのシミュレーションの状態集合 (切り替えたときに確保する)
+    SparseSet nfaStates;
+    private SparseSet nfaSpare;
+
+    private LazyDFA(NFA nfa){
+        super(nfa);
+    }
+
+    public static LazyDFA fromAST(AST ast){
+        return fromAST(ast, DEFAULT_CACHE_BYTES, DEFAULT_MAX_FLUSHES);
+    }
+
+    public static LazyDFA fromAST(AST ast, long cacheBytes, int maxFlushes){
+        ast = Optimizer.optimize(ast);
+        return fromNFA(NFA.fromAST(ast), CharClasses.fromAST(ast), cacheBytes, maxFlushes);
+    }
+
+    public static LazyDFA fromNFA(NFA nfa, long cacheBytes, int maxFlushes){
+        return fromNFA(nfa, CharClasses.fromNFA(nfa), cacheBytes, maxFlushes);
+    }
+
+    static LazyDFA fromNFA(NFA nfa, CharClasses classes, long cacheBytes, int maxFlushes){
+        LazyDFA dfa = new LazyDFA(nfa);
+        dfa.classes = classes;
+        dfa.classCount = classes.count;
+        dfa.maxFlushes = maxFlushes;
+
+        // 1状態あたりの大きさ(遷移表の1行 + NFAの状態集合 + 管理用の領域)から、キャッシュに置ける状態数を決める
+        // 死状態と初期状態の他に少なくとも1状態は置けるようにする
+        long bytesPerState = 4L * dfa.classCount + nfa.size / 8 + 64;
+        dfa.capacity = (int) Math.max(3, Math.min(Integer.MAX_VALUE / dfa.classCount, cacheBytes / bytesPerState));
+
+        dfa._flush();
+        return dfa;
+    }
+
+    private void _flush(){
+        // キャッシュを空にして、死状態と初期状態だけを置き直す
+        ids = new HashMap<>();
+        sets = new ArrayList<>();
+        table = new int[Math.min(capacity, 16) * classCount];
+        accept = new boolean[Math.min(capacity, 16)];
+        _add(new BitSet());
+        BitSet first = new BitSet();
+        first.set(start);
+        _add(closure(first));
+    }
+
+    private int _add(BitSet set){
+        // 状態集合をキャッシュに加え、その状態番号を返す
+        int id = sets.size();
+        if(id == accept.length){
+            int length = Math.min(capacity, accept.length * 2);
+            table = Arrays.copyOf(table, length * classCount);
+            accept = Arrays.copyOf(accept, length);
+        }
+        ids.put(set, id);
+        sets.add(set);
+        Arrays.fill(table, id * classCount, (id + 1) * classCount, UNKNOWN);
+        accept[id] = set.get(end);
+        if(id == DEAD){
+            Arrays.fill(table, 0, classCount, DEAD);
+        }
+        return id;
+    }
+
+    private BitSet _next(BitSet set, int c){
+        // クラスcの文字による遷移先の状態集合
+        return closure(step(set, classes.representative(c)));
+    }
+
+    private int _transition(int state, int c){
+        // キャッシュにない遷移を求めて表に書き込む
+        // キャッシュが満杯のときは空にしてから遷移先だけを置き直すので、戻り値以外の状態番号は無効になる
+        misses++;
+        BitSet next = _next(sets.get(state), c);
+        Integer id = ids.get(next);
+        if(id == null){
+            if(sets.size() == capacity){
+                flushes++;
+                if(flushes > maxFlushes){
+                    fallback = true;
+                    nfaStates = new SparseSet(size);
+                    nfaSpare = new SparseSet(size);
+                    return UNKNOWN;
+                }
+                _flush();
+                id = ids.get(next);
+                if(id == null){
+                    id = _add(next);
+                }
+                return id;
+            }
+            id = _add(next);
+        }
+        table[state * classCount + c] = id;
+        return id;
+    }
+
+    @Override
+    public boolean match(CharSequence s){
+        int state = run(s);
+        return state >= 0 ? accept[state] : nfaStates.contains(end);
+    }
+
+    int run(CharSequence s){
+        // 入力全体を読んだ後の状態番号を返す
+        // NFAのシミュレーションに切り替えたときは-1を返し、そのときの状態集合はnfaStatesに入る
+        if(fallback){
+            initial(nfaStates);
+            nfaStates = _simulate(nfaStates, s, 0, 0);
+            return -1;
+        }
+        int state = INITIAL;
+        int found = 0;
+        long steps = 0;
+        for(int i = 0; i < s.length(); i++){
+            int c = classes.classOf(s.charAt(i));
+            int next = table[state * classCount + c];
+            if(next == UNKNOWN){
+                if((steps += size) > maxSteps){
+                    hits += found;
+                    throw new ResourceLimitException(ResourceLimitException.Kind.STEPS, steps, maxSteps);
+                }
+                next = _transition(state, c);
+                if(next == UNKNOWN){
+                    // 作り直しが多すぎるので、残りの入力はNFAのシミュレーションで照合する
+                    // 状態集合は切り替えたときに確保したSparseSetを使い回し、1文字ごとの確保はしない
+                    hits += found;
+                    step(sets.get(state), s.charAt(i), nfaStates);
+                    nfaStates = _simulate(nfaStates, s, i + 1, steps);
+                    return -1;
+                }
+            } else {
+                found++;
+            }
+            state = next;
+            if(state == DEAD){
+                break;
+            }
+        }
+        hits += found;
+        return state;
+    }
+
+    private SparseSet _simulate(SparseSet from, CharSequence s, int i, long steps){
+        // 読み終えた状態集合を返し、もう一方をnfaSpareにする
+        SparseSet result = simulate(from, nfaSpare, s, i, steps);
+        if(result != from){
+            nfaSpare = from;
+        }
+        return result;
+    }
+
+    BitSet set(int state){
+        // 状態stateのNFAの状態集合 (次にキャッシュを空にするまで有効)
+        return sets.get(state);
+    }
+
+    long misses(){
+        return misses;
+    }
+
+    boolean fallback(){
+        // NFAのシミュレーションに切り替えたか
+        return fallback;
+    }
+
+    public CacheStats cacheStats(){
+        return new CacheStats(hits, misses, flushes, sets.size(), fallback);
+    }
+}
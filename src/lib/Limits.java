@@ -0,0 +1,34 @@
+package lib;
+
+public record Limits(int maxPatternLength, int maxNfaNodes, int maxDfaStates, long maxCacheBytes, long maxSteps) {
+    // 信頼できない正規表現をコンパイル・照合するときの資源の上限
+    //   maxPatternLength  正規表現の文字数 (超えたらResourceLimitException)
+    //   maxNfaNodes       NFAのノード数・Pike VMの命令数 (超えたらResourceLimitException)
+    //   maxDfaStates      DFAの状態数 (超えたら遅延DFAで照合する)
+    //   maxCacheBytes     遅延DFAのキャッシュの大きさ (何度も溢れたらNFAのシミュレーションで照合する)
+    //   maxSteps          1回の照合でたどるNFAの状態・Pike VMの命令の延べ数 (超えたらResourceLimitException)
+    // maxStepsは遅延DFA (NFAのシミュレーションに切り替わった後も含む) とPike VMで照合するときだけ数える
+    // DFAで照合するときは1文字に一定の手間しかかからないので数えない (手間は入力の長さで抑える)
+    public static final Limits DEFAULT = new Limits(Integer.MAX_VALUE, Integer.MAX_VALUE, Pattern.MAX_DFA_STATES,
+            LazyDFA.DEFAULT_CACHE_BYTES, Long.MAX_VALUE);
+
+    public Limits withMaxPatternLength(int maxPatternLength){
+        return new Limits(maxPatternLength, maxNfaNodes, maxDfaStates, maxCacheBytes, maxSteps);
+    }
+
+    public Limits withMaxNfaNodes(int maxNfaNodes){
+        return new Limits(maxPatternLength, maxNfaNodes, maxDfaStates, maxCacheBytes, maxSteps);
+    }
+
+    public Limits withMaxDfaStates(int maxDfaStates){
+        return new Limits(maxPatternLength, maxNfaNodes, maxDfaStates, maxCacheBytes, maxSteps);
+    }
+
+    public Limits withMaxCacheBytes(long maxCacheBytes){
+        return new Limits(maxPatternLength, maxNfaNodes, maxDfaStates, maxCacheBytes, maxSteps);
+    }
+
+    public Limits withMaxSteps(long maxSteps){
+        return new Limits(maxPatternLength, maxNfaNodes, maxDfaStates, maxCacheBytes, maxSteps);
+    }
+}
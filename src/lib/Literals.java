@@ -0,0 +1,171 @@
+package lib;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+public record Literals(String exact, String prefix, String suffix, String required) {
+    // 正規表現に一致する文字列が必ず持つ文字列
+    // exact: 一致する文字列がただ1つならその文字列 (そうでなければnull)
+    // prefix: 一致する文字列はすべてこれで始まる
+    // suffix: 一致する文字列はすべてこれで終わる
+    // required: 一致する文字列はすべてこれを含む (prefix, suffixを含めて見つかった中で最も長いもの)
+    private static final Literals NONE = new Literals(null, "", "", "");
+    // 繰り返しから作る文字列の長さの上限
+    private static final int MAX_EXACT = 256;
+
+    public static Literals of(AST ast){
+        // ASTを後順にスタックでたどり、子の結果から親の結果を作る
+        // 連結は左結合の列にして左から順にまとめ、文字列はStringBuilderでつなぐ
+        // 再帰せず、長い連結でも文字列を作り直さないので、長い正規表現でもスタックがあふれず、長さに比例する時間で済む
+        ArrayDeque<Frame> frames = new ArrayDeque<>();
+        ArrayDeque<Literals> results = new ArrayDeque<>();
+        frames.push(new Frame(ast, null));
+        while(!frames.isEmpty()){
+            Frame frame = frames.pop();
+            if(frame.parts == null){
+                // 子を先にまとめてから、もう一度このノードに戻る
+                List<AST> parts = _parts(frame.ast);
+                frames.push(new Frame(frame.ast, parts));
+                for(int i = parts.size() - 1; i >= 0; i--){
+                    frames.push(new Frame(parts.get(i), null));
+                }
+                continue;
+            }
+            Literals[] ls = new Literals[frame.parts.size()];
+            for(int i = ls.length - 1; i >= 0; i--){
+                ls[i] = results.pop();
+            }
+            results.push(_combine(frame.ast, ls));
+        }
+        return results.pop();
+    }
+
+    private record Frame(AST ast, List<AST> parts) {
+        // partsはastの子の一覧 (まだ子をたどっていなければnull)
+    }
+
+    private static List<AST> _parts(AST ast){
+        // 結果を作るのに必要な子 (連結は要素の列)
+        return switch (ast) {
+            case AST.Char _, AST.CharSet _, AST.Star<?> _, AST.Optional<?> _ -> List.of();
+            case AST.Concat<?, ?> _ -> {
+                ArrayDeque<AST> elements = new ArrayDeque<>();
+                while(ast instanceof AST.Concat<?, ?> t){
+                    elements.push(t.t2);
+                    ast = t.t1;
+                }
+                elements.push(ast);
+                yield new ArrayList<>(elements);
+            }
+            case AST.Union<?, ?> t -> List.of(t.t1, t.t2);
+            case AST.Plus<?> t -> List.of(t.t);
+            case AST.Repeat<?> t -> t.min == 0 ? List.of() : List.of(t.t);
+            case AST.Group<?> t -> List.of(t.t);
+        };
+    }
+
+    private static Literals _combine(AST ast, Literals[] ls){
+        // 子の結果lsからastの結果を作る
+        return switch (ast) {
+            case AST.Char c -> {
+                String s = String.valueOf(c.c);
+                yield new Literals(s, s, s, s);
+            }
+            case AST.CharSet t -> {
+                if(t.ranges.length == 2 && t.ranges[0] == t.ranges[1]){
+                    String s = String.valueOf(t.ranges[0]);
+                    yield new Literals(s, s, s, s);
+                }
+                yield NONE;
+            }
+            case AST.Concat<?, ?> _ -> _concat(ls);
+            case AST.Union<?, ?> _ -> {
+                Literals l1 = ls[0];
+                Literals l2 = ls[1];
+                String exact = l1.exact != null && l1.exact.equals(l2.exact) ? l1.exact : null;
+                String prefix = _commonPrefix(l1.prefix, l2.prefix);
+                String suffix = _commonSuffix(l1.suffix, l2.suffix);
+                String required = l1.required.equals(l2.required) ? l1.required : "";
+                yield new Literals(exact, prefix, suffix, _longest(required, _longest(prefix, suffix)));
+            }
+            // 空文字列にも一致するので何も言えない
+            case AST.Star<?> _, AST.Optional<?> _ -> NONE;
+            // 1回以上の繰り返しは、tの始まりで始まりtの終わりで終わる
+            case AST.Plus<?> _ -> new Literals(null, ls[0].prefix, ls[0].suffix, ls[0].required);
+            case AST.Repeat<?> t -> {
+                if(t.min == 0){
+                    yield NONE;
+                }
+                // min回は必ず続けて現れる
+                Literals l = ls[0];
+                String repeated = l.exact != null && (long) l.exact.length() * t.min <= MAX_EXACT ? l.exact.repeat(t.min) : null;
+                String exact = t.min == t.max ? repeated : null;
+                String prefix = repeated != null ? repeated : l.prefix;
+                String suffix = repeated != null ? repeated : l.suffix;
+                yield new Literals(exact, prefix, suffix, _longest(l.required, prefix));
+            }
+            case AST.Group<?> _ -> ls[0];
+        };
+    }
+
+    private static Literals _concat(Literals[] ls){
+        // 連結の要素を左から順にまとめる
+        // head: 先頭から続くexactな要素の連結、prefix: 最初のexactでない要素まで見たときの始まり
+        // tail: 最後のexactでない要素の終わりと、それに続くexactな要素の連結
+        StringBuilder head = new StringBuilder();
+        String prefix = null;
+        StringBuilder tail = new StringBuilder();
+        String required = "";
+        for(Literals l : ls){
+            if(l.exact != null){
+                required = _longest(required, l.required);
+                if(prefix == null){
+                    head.append(l.exact);
+                }
+                tail.append(l.exact);
+                continue;
+            }
+            // exactな要素が続いた分はここで文字列にする
+            if(tail.length() > required.length()){
+                required = tail.toString();
+            }
+            required = _longest(required, l.required);
+            // 前の要素の終わりとこの要素の始まりはつながって現れる
+            if(tail.length() + l.prefix.length() > required.length()){
+                required = tail + l.prefix;
+            }
+            if(prefix == null){
+                prefix = head + l.prefix;
+            }
+            tail.setLength(0);
+            tail.append(l.suffix);
+        }
+        String exact = prefix == null ? head.toString() : null;
+        if(prefix == null){
+            prefix = exact;
+        }
+        String suffix = tail.toString();
+        return new Literals(exact, prefix, suffix, _longest(required, _longest(prefix, suffix)));
+    }
+
+    private static String _longest(String s1, String s2){
+        return s2.length() > s1.length() ? s2 : s1;
+    }
+
+    private static String _commonPrefix(String s1, String s2){
+        int i = 0;
+        while(i < s1.length() && i < s2.length() && s1.charAt(i) == s2.charAt(i)){
+            i++;
+        }
+        return s1.substring(0, i);
+    }
+
+    private static String _commonSuffix(String s1, String s2){
+        int i = 0;
+        while(i < s1.length() && i < s2.length() && s1.charAt(s1.length() - 1 - i) == s2.charAt(s2.length() - 1 - i)){
+            i++;
+        }
+        return s1.substring(s1.length() - i);
+    }
+}
@@ -0,0 +1,34 @@
+package lib;
+
+import jdk.jfr.*;
+
+@Name("regj.Match")
+@Label("Regex Match")
+@Category("RegJ")
+@Description("A match by an instrumented pattern that took longer than the threshold")
+@StackTrace(false)
+@Threshold("1 ms")
+final class MatchEvent extends Event {
+    // JFRに記録する照合のイベント
+    // 既定ではしきい値(1ms)より時間のかかった照合だけを記録する
+    // 照合が例外で終わったものも記録し、outcomeにその例外のクラス名を入れる (終わったものはCOMPLETED)
+    static final String COMPLETED = "completed";
+
+    @Label("Pattern")
+    String pattern;
+
+    @Label("Length")
+    int length;
+
+    @Label("Matched")
+    boolean matched;
+
+    @Label("Outcome")
+    String outcome;
+
+    @Label("NFA States")
+    long states;
+
+    @Label("Cache Misses")
+    long cacheMisses;
+}
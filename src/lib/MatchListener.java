@@ -0,0 +1,13 @@
+package lib;
+
+public interface MatchListener {
+    // 計測つきの照合が1回終わるごとに呼ばれる
+    // 照合したスレッドで呼ばれるので、重い処理はしないこと
+    // length: 入力の文字数、states: たどったNFAの状態の数、cacheMisses: 遅延DFAのキャッシュにない遷移を求めた回数
+    void onMatch(PatternStats stats, int length, boolean matched, long nanos, long states, long cacheMisses);
+
+    default void onFailure(PatternStats stats, int length, long nanos, long states, long cacheMisses, Throwable failure){
+        // 照合が例外で終わったときに、onMatchの代わりに呼ばれる (例外はこの後で照合の呼び出し元に投げられる)
+        // states, cacheMissesは例外までに数えたもの
+    }
+}
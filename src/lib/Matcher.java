@@ -0,0 +1,6 @@
+package lib;
+
+public interface Matcher {
+    // 入力全体が正規表現に一致するかを判定するもの
+    boolean match(CharSequence s);
+}
@@ -0,0 +1,377 @@
+package lib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.*;
+
+public final class MatcherCompiler {
+    // DFAを専用のクラスに変換し、遷移表を引かずに照合するMatcherを作る
+    //
+    // 状態ごとにコードの塊を作り、状態の番号は持たずに塊から塊へ直接跳ぶ
+    //   L_q: if(i >= n) return accept[q];
+    //        c = s.charAt(i++);
+    //        switch(pages[c >>> 8][c & 0xFF]) { case クラス: goto L_遷移先; ... default: goto L_最も多い遷移先; }
+    // 文字の範囲をswitchのキーにすると範囲の大きさだけキーが要るので、キーは文字のクラスにする
+    // 死状態の塊は単にfalseを返す
+    //
+    // クラスファイルはバージョン49で書くので、StackMapTableは要らない
+    // MethodHandles.Lookup.defineHiddenClassで定義し、使われなくなればクラスごと回収される
+    // 状態数がMAX_STATESを超えるか、メソッドがJITのコンパイル対象の大きさ(HugeMethodLimit)を超えるときは、
+    // DFAの遷移表をそのまま使う
+    public static final int MAX_STATES = 256;
+    public static final int MAX_CODE_SIZE = 8000;
+
+    private static final int VERSION = 49;
+
+    // ローカル変数: 0 this, 1 s, 2 i, 3 n, 4 c, 5 pages
+    private static final int ILOAD_2 = 0x1C;
+    private static final int ILOAD_3 = 0x1D;
+    private static final int ILOAD = 0x15;
+    private static final int ALOAD_0 = 0x2A;
+    private static final int ALOAD_1 = 0x2B;
+    private static final int ALOAD = 0x19;
+    private static final int ISTORE_2 = 0x3D;
+    private static final int ISTORE_3 = 0x3E;
+    private static final int ISTORE = 0x36;
+    private static final int ASTORE = 0x3A;
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int IINC = 0x84;
+    private static final int IUSHR = 0x7C;
+    private static final int IAND = 0x7E;
+    private static final int AALOAD = 0x32;
+    private static final int CALOAD = 0x34;
+    private static final int IF_ICMPLT = 0xA1;
+    private static final int LOOKUPSWITCH = 0xAB;
+    private static final int IRETURN = 0xAC;
+    private static final int RETURN = 0xB1;
+    private static final int GETFIELD = 0xB4;
+    private static final int PUTFIELD = 0xB5;
+    private static final int INVOKESPECIAL = 0xB7;
+    private static final int INVOKEINTERFACE = 0xB9;
+    private static final int GOTO_W = 0xC8;
+
+    private MatcherCompiler(){
+    }
+
+    public static Matcher compile(DFA dfa){
+        // DFAを専用のクラスにする (大きすぎるときはDFAそのもの)
+        if(dfa.stateCount() > MAX_STATES){
+            return dfa::match;
+        }
+        byte[] bytes = _classFile(dfa);
+        if(bytes == null){
+            return dfa::match;
+        }
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (Matcher) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, char[][].class))
+                    .invoke(dfa.classes.pages);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to define a generated matcher", e);
+        }
+    }
+
+    private static byte[] _match(DFA dfa, ConstantPool pool){
+        // matchメソッドのコード (大きすぎるときはnull)
+        int k = dfa.classCount;
+        int n = dfa.stateCount();
+        Code code = new Code();
+
+        // i = 0; n = s.length(); pages = this.pages;
+        code.write(ICONST_0);
+        code.write(ISTORE_2);
+        code.write(ALOAD_1);
+        _invokeInterface(code, pool.interfaceMethod("java/lang/CharSequence", "length", "()I"), 1);
+        code.write(ISTORE_3);
+        code.write(ALOAD_0);
+        code.write(GETFIELD);
+        _u2(code, pool.field("pages", "[[C"));
+        code.write(ASTORE);
+        code.write(5);
+
+        // 初期状態の塊を最初に置き、残りは番号順に置く
+        int[] order = new int[n];
+        order[0] = dfa.initial;
+        for(int q = 0, j = 1; q < n; q++){
+            if(q != dfa.initial){
+                order[j++] = q;
+            }
+        }
+        int[] labels = new int[n];
+        List<int[]> patches = new ArrayList<>();
+        for(int q : order){
+            labels[q] = code.size();
+            if(q == DFA.DEAD){
+                code.write(ICONST_0);
+                code.write(IRETURN);
+                continue;
+            }
+
+            // if(i >= n) return accept[q];
+            code.write(ILOAD_2);
+            code.write(ILOAD_3);
+            code.write(IF_ICMPLT);
+            _u2(code, 5);
+            code.write(ICONST_0 + (dfa.accept[q] ? 1 : 0));
+            code.write(IRETURN);
+
+            // c = s.charAt(i); i++;
+            code.write(ALOAD_1);
+            code.write(ILOAD_2);
+            _invokeInterface(code, pool.interfaceMethod("java/lang/CharSequence", "charAt", "(I)C"), 2);
+            code.write(ISTORE);
+            code.write(4);
+            code.write(IINC);
+            code.write(2);
+            code.write(1);
+
+            // pages[c >>> 8][c & 0xFF]
+            code.write(ALOAD);
+            code.write(5);
+            code.write(ILOAD);
+            code.write(4);
+            code.write(BIPUSH);
+            code.write(8);
+            code.write(IUSHR);
+            code.write(AALOAD);
+            code.write(ILOAD);
+            code.write(4);
+            code.write(SIPUSH);
+            _u2(code, 0xFF);
+            code.write(IAND);
+            code.write(CALOAD);
+
+            // 最も多い遷移先をdefaultにし、それ以外のクラスをキーにする
+            int[] count = new int[n];
+            int common = 0;
+            for(int c = 0; c < k; c++){
+                int next = dfa.table[q * k + c];
+                if(++count[next] > count[common]){
+                    common = next;
+                }
+            }
+            int opcode = code.size();
+            code.write(LOOKUPSWITCH);
+            while(code.size() % 4 != 0){
+                code.write(0);
+            }
+            int table = code.size();
+            _u4(code, 0);
+            _u4(code, k - count[common]);
+            for(int c = 0; c < k; c++){
+                if(dfa.table[q * k + c] != common){
+                    _u4(code, c);
+                    _u4(code, 0);
+                }
+            }
+
+            // 跳び先ごとにgoto_wを置き、switchからはそこへ跳ぶ
+            // インタプリタは後ろ向きの分岐でループを数えてJITに渡すので、switchで直接後ろへは跳ばない
+            int[] trampolines = new int[n];
+            Arrays.fill(trampolines, -1);
+            trampolines[common] = _goto(code, patches, common);
+            code.set(table, trampolines[common] - opcode);
+            for(int c = 0, j = 0; c < k; c++){
+                int next = dfa.table[q * k + c];
+                if(next != common){
+                    if(trampolines[next] < 0){
+                        trampolines[next] = _goto(code, patches, next);
+                    }
+                    code.set(table + 12 + 8 * j, trampolines[next] - opcode);
+                    j++;
+                }
+            }
+            if(code.size() > MAX_CODE_SIZE){
+                return null;
+            }
+        }
+
+        // goto_wの跳び先を埋める (跳び先は命令の位置からの相対位置)
+        for(int[] patch : patches){
+            code.set(patch[0] + 1, labels[patch[1]] - patch[0]);
+        }
+        return code.toByteArray();
+    }
+
+    private static int _goto(Code code, List<int[]> patches, int target){
+        // 跳び先を後で埋めるgoto_wを置き、その位置を返す
+        int at = code.size();
+        code.write(GOTO_W);
+        _u4(code, 0);
+        patches.add(new int[]{at, target});
+        return at;
+    }
+
+    private static byte[] _classFile(DFA dfa){
+        // final class GeneratedMatcher implements Matcher {
+        //     private final char[][] pages;
+        //     public GeneratedMatcher(char[][] pages){ this.pages = pages; }
+        //     public boolean match(CharSequence s){ ... }
+        // }
+        ConstantPool pool = new ConstantPool("lib/GeneratedMatcher");
+        byte[] match = _match(dfa, pool);
+        if(match == null){
+            return null;
+        }
+
+        ByteArrayOutputStream init = new ByteArrayOutputStream();
+        init.write(ALOAD_0);
+        init.write(INVOKESPECIAL);
+        _u2(init, pool.method("java/lang/Object", "<init>", "()V"));
+        init.write(ALOAD_0);
+        init.write(ALOAD_1);
+        init.write(PUTFIELD);
+        _u2(init, pool.field("pages", "[[C"));
+        init.write(RETURN);
+
+        int object = pool.classRef("java/lang/Object");
+        int matcher = pool.classRef("lib/Matcher");
+        int code = pool.utf8("Code");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int[] field = {pool.utf8("pages"), pool.utf8("[[C")};
+            int[] initName = {pool.utf8("<init>"), pool.utf8("([[C)V")};
+            int[] matchName = {pool.utf8("match"), pool.utf8("(Ljava/lang/CharSequence;)Z")};
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            pool.writeTo(out);
+            out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+            out.writeShort(pool.thisClass);
+            out.writeShort(object);
+            out.writeShort(1);
+            out.writeShort(matcher);
+
+            out.writeShort(1);
+            out.writeShort(0x0002 | 0x0010); // private final
+            out.writeShort(field[0]);
+            out.writeShort(field[1]);
+            out.writeShort(0);
+
+            out.writeShort(2);
+            _method(out, initName, code, 2, 2, init.toByteArray());
+            _method(out, matchName, code, 3, 6, match);
+
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void _method(DataOutputStream out, int[] name, int code, int maxStack, int maxLocals, byte[] body) throws IOException {
+        out.writeShort(0x0001); // public
+        out.writeShort(name[0]);
+        out.writeShort(name[1]);
+        out.writeShort(1);
+        out.writeShort(code);
+        out.writeInt(12 + body.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(body.length);
+        out.write(body);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    private static void _invokeInterface(ByteArrayOutputStream code, int method, int slots){
+        code.write(INVOKEINTERFACE);
+        _u2(code, method);
+        code.write(slots);
+        code.write(0);
+    }
+
+    private static void _u2(ByteArrayOutputStream out, int v){
+        out.write(v >>> 8);
+        out.write(v);
+    }
+
+    private static void _u4(ByteArrayOutputStream out, int v){
+        _u2(out, v >>> 16);
+        _u2(out, v);
+    }
+
+    private static final class Code extends ByteArrayOutputStream {
+        // 書いた後で4バイトの値を書き換えられるバイト列
+        void set(int at, int v){
+            buf[at] = (byte) (v >>> 24);
+            buf[at + 1] = (byte) (v >>> 16);
+            buf[at + 2] = (byte) (v >>> 8);
+            buf[at + 3] = (byte) v;
+        }
+    }
+
+    private static final class ConstantPool {
+        // 定数プール (同じ項目は1つにまとめる)
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final HashMap<String, Integer> ids = new HashMap<>();
+        private int count = 1;
+        final int thisClass;
+
+        ConstantPool(String className){
+            this.thisClass = classRef(className);
+        }
+
+        private int _entry(String key, int tag, int... operands){
+            // operandsは2バイトずつ書く
+            Integer id = ids.get(key);
+            if(id != null){
+                return id;
+            }
+            bytes.write(tag);
+            for(int operand : operands){
+                _u2(bytes, operand);
+            }
+            ids.put(key, count);
+            return count++;
+        }
+
+        int utf8(String s){
+            Integer id = ids.get("U" + s);
+            if(id != null){
+                return id;
+            }
+            try {
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeByte(1);
+                out.writeUTF(s);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            ids.put("U" + s, count);
+            return count++;
+        }
+
+        int classRef(String name){
+            return _entry("C" + name, 7, utf8(name));
+        }
+
+        private int _nameAndType(String name, String type){
+            return _entry(STR."N\{name}:\{type}", 12, utf8(name), utf8(type));
+        }
+
+        int field(String name, String type){
+            return _entry(STR."F\{name}:\{type}", 9, thisClass, _nameAndType(name, type));
+        }
+
+        int method(String owner, String name, String type){
+            return _entry(STR."M\{owner}.\{name}:\{type}", 10, classRef(owner), _nameAndType(name, type));
+        }
+
+        int interfaceMethod(String owner, String name, String type){
+            return _entry(STR."I\{owner}.\{name}:\{type}", 11, classRef(owner), _nameAndType(name, type));
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeShort(count);
+            bytes.writeTo(out);
+        }
+    }
+}
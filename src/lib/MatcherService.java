@@ -0,0 +1,326 @@
+package lib;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+
+public final class MatcherService implements AutoCloseable {
+    // 番号(id)で登録した正規表現と入力の組を受け取り、別のスレッドで照合して結果をCompletableFutureで返す
+    // 受け取った照合は上限つきのキューに入れ、同時に照合するのはconcurrent個までにする
+    // キューが一杯のとき、submitは空くまで待ち(背圧)、trySubmitはすぐに失敗を返す
+    // 照合するスレッドは既定では仮想スレッドで、ExecutorServiceを渡せばそれを使う
+    //
+    // 照合ごとに時間の上限を決められ、上限を超えるとTimeoutExceptionで終わる (上限はキューで待つ時間も含む)
+    // 返したCompletableFutureをcancelすると照合をやめる
+    // 照合の途中でやめられるように、入力をCHECK_INTERVAL文字読むごとに終わっていないかを調べる
+    // channelから読む入力は、DFAで照合するMatcher(DFA, DFAを持つPattern)なら読んだ断片ごとにDFAを進め、入力全体を持たない
+    // 他のMatcherは入力全体を受け取るので、終わりまで読んでから照合する (どちらも断片を読むたびに終わっていないかを調べる)
+    // そのときに仮想スレッドなら他の仮想スレッドに譲るので、長い照合がキャリアスレッドを占有し続けることはない
+    // ロックはjava.util.concurrentのものだけを使い、synchronizedで仮想スレッドをキャリアに固定することはない
+    //
+    // 登録するMatcherは複数のスレッドから同時に呼ばれるので、共有してよいもの(Pattern, DFAなど)にする
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int DEFAULT_CONCURRENCY = 256;
+    public static final int CHECK_INTERVAL = 1 << 14;
+    private static final int READ_SIZE = 1 << 13;
+
+    private final ConcurrentHashMap<String, Matcher> matchers;
+    private final ArrayBlockingQueue<Job> queue;
+    private final Semaphore running;
+    private final ExecutorService executor;
+    private final boolean ownExecutor;
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    public MatcherService(){
+        this(DEFAULT_CAPACITY, DEFAULT_CONCURRENCY, null);
+    }
+
+    public MatcherService(int capacity, int concurrency, ExecutorService executor){
+        // executorがnullなら照合ごとに仮想スレッドを作り、closeで止める (渡したexecutorは止めない)
+        this.matchers = new ConcurrentHashMap<>();
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.running = new Semaphore(Math.max(1, concurrency));
+        this.ownExecutor = executor == null;
+        this.executor = executor == null ? Executors.newVirtualThreadPerTaskExecutor() : executor;
+        this.dispatcher = Thread.ofVirtual().name("matcher-service-dispatcher").start(this::_dispatch);
+    }
+
+    public void register(String id, String pattern){
+        register(id, Pattern.compile(pattern));
+    }
+
+    public void register(String id, String pattern, Limits limits){
+        // 信頼できない正規表現は上限をつけてコンパイルし、照合が上限を超えたらResourceLimitExceptionで終わらせる
+        register(id, Pattern.compile(pattern, limits));
+    }
+
+    public void register(String id, Matcher matcher){
+        // NFAはε閉包の索引を最初の照合で作るので、共有する前に作っておく
+        if(matcher.getClass() == NFA.class){
+            ((NFA) matcher).index();
+        }
+        matchers.put(id, matcher);
+    }
+
+    public void unregister(String id){
+        // キューで待っている照合は登録を消す前のMatcherで照合する
+        matchers.remove(id);
+    }
+
+    public CompletableFuture<Boolean> submit(String id, CharSequence input) throws InterruptedException {
+        return submit(id, input, null);
+    }
+
+    public CompletableFuture<Boolean> submit(String id, CharSequence input, Duration budget) throws InterruptedException {
+        // 入力全体がidの正規表現に一致するか (キューが一杯なら空くまで待つ)
+        return _submit(new Job(_matcher(id), input, null, budget), true);
+    }
+
+    public CompletableFuture<Boolean> submit(String id, ReadableByteChannel channel, Duration budget) throws InterruptedException {
+        // channelから終わりまで読んだUTF-8の文字列全体が一致するか (channelは閉じない)
+        // DFAで照合するMatcherでは、一致しないことが決まれば残りは読まない
+        return _submit(new Job(_matcher(id), null, channel, budget), true);
+    }
+
+    public CompletableFuture<Boolean> trySubmit(String id, CharSequence input, Duration budget){
+        // キューが一杯ならRejectedExecutionExceptionで失敗したものを返す
+        return _submitNow(new Job(_matcher(id), input, null, budget));
+    }
+
+    public CompletableFuture<Boolean> trySubmit(String id, ReadableByteChannel channel, Duration budget){
+        return _submitNow(new Job(_matcher(id), null, channel, budget));
+    }
+
+    private Matcher _matcher(String id){
+        Matcher matcher = matchers.get(id);
+        if(matcher == null){
+            throw new IllegalArgumentException(STR."Unknown pattern id: \{id}");
+        }
+        return matcher;
+    }
+
+    private CompletableFuture<Boolean> _submitNow(Job job){
+        try {
+            return _submit(job, false);
+        } catch (InterruptedException e) {
+            // 待たないので起こらない
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private CompletableFuture<Boolean> _submit(Job job, boolean block) throws InterruptedException {
+        if(closed){
+            throw new RejectedExecutionException("MatcherService is closed");
+        }
+        if(block){
+            queue.put(job);
+        } else if(!queue.offer(job)){
+            job.future.completeExceptionally(new RejectedExecutionException("MatcherService queue is full"));
+            return job.future;
+        }
+        if(closed){
+            // closeと入れ違いになったものは照合しない
+            _drain();
+        }
+        return job.future;
+    }
+
+    private void _dispatch(){
+        // 同時に照合する数の枠が空いたらキューから取り出して照合を始める
+        try {
+            while(true){
+                running.acquire();
+                Job job;
+                try {
+                    job = queue.take();
+                } catch (InterruptedException e) {
+                    // 取り出す前に止まったときは枠を返す
+                    running.release();
+                    throw e;
+                }
+                if(job.future.isDone()){
+                    // 待っている間に時間切れか取り消しになった
+                    running.release();
+                    continue;
+                }
+                try {
+                    executor.execute(job);
+                } catch (RejectedExecutionException e) {
+                    running.release();
+                    job.future.completeExceptionally(e);
+                }
+            }
+        } catch (InterruptedException e) {
+            // closeで止まる
+        }
+    }
+
+    private void _drain(){
+        for(Job job; (job = queue.poll()) != null; ){
+            job.future.cancel(false);
+        }
+    }
+
+    public int queued(){
+        // キューで待っている照合の数
+        return queue.size();
+    }
+
+    @Override
+    public void close(){
+        // 新しい照合を受け付けず、キューで待っているものは取り消す
+        // 照合中のものは終わるまで待つ (自分で作ったexecutorのとき)
+        closed = true;
+        dispatcher.interrupt();
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        _drain();
+        if(ownExecutor){
+            executor.close();
+        }
+    }
+
+    private final class Job implements Runnable {
+        final Matcher matcher;
+        final CharSequence input;
+        final ReadableByteChannel channel;
+        final CompletableFuture<Boolean> future;
+
+        Job(Matcher matcher, CharSequence input, ReadableByteChannel channel, Duration budget){
+            this.matcher = matcher;
+            this.input = input;
+            this.channel = channel;
+            this.future = new CompletableFuture<>();
+            if(budget != null){
+                // 上限を過ぎるとfutureがTimeoutExceptionで終わり、照合はそれを見てやめる
+                future.orTimeout(budget.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public void run(){
+            try {
+                future.complete(input != null ? matcher.match(new Checked(input, future)) : _matchChannel());
+            } catch (Stop e) {
+                // 時間切れや取り消しでfutureは終わっている (executorの割り込みならここで取り消す)
+                future.cancel(false);
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                running.release();
+            }
+        }
+
+        private boolean _matchChannel(){
+            // DFAで照合するMatcherなら、読んだ断片ごとにDFAを進める (Patternの接頭辞などの前処理はDFAの結果を変えないので省く)
+            DFA dfa = matcher instanceof DFA d ? d : matcher instanceof Pattern p ? p.dfa() : null;
+            if(dfa == null){
+                StringBuilder sb = new StringBuilder();
+                _decode(chars -> {
+                    sb.append(chars);
+                    return true;
+                });
+                return matcher.match(new Checked(sb, future));
+            }
+            int[] state = {dfa.initial};
+            _decode(chars -> (state[0] = dfa.step(state[0], chars)) != DFA.DEAD);
+            return dfa.accept[state[0]];
+        }
+
+        private void _decode(Predicate<CharBuffer> sink){
+            // channelをUTF-8として読み、デコードした断片を順にsinkに渡す (sinkがfalseを返せば残りは読まない)
+            // 読むたびに終わっていないかを調べる
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            ByteBuffer bytes = ByteBuffer.allocate(READ_SIZE);
+            CharBuffer chars = CharBuffer.allocate(READ_SIZE);
+            try {
+                boolean end = false;
+                while(!end){
+                    Checked.check(future);
+                    end = channel.read(bytes) < 0;
+                    bytes.flip();
+                    decoder.decode(bytes, chars, end);
+                    bytes.compact();
+                    if(!sink.test(chars.flip())){
+                        return;
+                    }
+                    chars.clear();
+                }
+                decoder.flush(chars);
+                sink.test(chars.flip());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static final class Stop extends RuntimeException {
+        // 照合を途中でやめるための例外 (スタックトレースは取らない)
+        static final Stop INSTANCE = new Stop();
+
+        private Stop(){
+            super(null, null, false, false);
+        }
+    }
+
+    private static final class Checked implements CharSequence {
+        // CHECK_INTERVAL文字読むごとに、照合を続けてよいかを調べる入力
+        final CharSequence s;
+        final CompletableFuture<?> future;
+        int countdown;
+
+        Checked(CharSequence s, CompletableFuture<?> future){
+            this.s = s;
+            this.future = future;
+            this.countdown = CHECK_INTERVAL;
+        }
+
+        static void check(CompletableFuture<?> future){
+            // 時間切れや取り消しで終わっているか、スレッドが割り込まれていればやめる
+            if(future.isDone() || Thread.currentThread().isInterrupted()){
+                throw Stop.INSTANCE;
+            }
+            if(Thread.currentThread().isVirtual()){
+                Thread.yield();
+            }
+        }
+
+        @Override
+        public int length(){
+            return s.length();
+        }
+
+        @Override
+        public char charAt(int index){
+            if(--countdown == 0){
+                countdown = CHECK_INTERVAL;
+                check(future);
+            }
+            return s.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end){
+            return s.subSequence(start, end);
+        }
+
+        @Override
+        public String toString(){
+            return s.toString();
+        }
+    }
+}
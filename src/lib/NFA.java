@@ -2,165 +2,467 @@ package lib;
 
 import java.util.*;
 
-sealed public class NFA permits DFA{
-    private static class Node {
-        HashMap<Character, HashSet<Node>> transitionsTo;
-        HashMap<Character, HashSet<Node>> transitionsFrom;
-        int id;
-        Node(){
-            transitionsTo = new HashMap<>();
-            transitionsFrom = new HashMap<>();
-            id = 0;
+sealed public class NFA implements Matcher permits DFA, LazyDFA{
+    // ノードを0からsize-1の整数で表し、遷移を整数の配列に詰めたNFA
+    // ノードiの文字遷移はedgeLow, edgeHigh, edgeTargetのedgeStart[i]からedgeStart[i+1]-1まで
+    // 文字遷移はedgeLow[e]以上edgeHigh[e]以下の文字でedgeTarget[e]へ進む (文字集合は範囲ごとに1本)
+    // ノードiのε遷移の遷移先はepsilonTargetのepsilonStart[i]からepsilonStart[i+1]-1まで
+    // どちらもノードごとにまとめて並べ、重複はない
+    int size;
+    int start;
+    int end;
+    int[] edgeStart;
+    char[] edgeLow;
+    char[] edgeHigh;
+    int[] edgeTarget;
+    int[] epsilonStart;
+    int[] epsilonTarget;
+
+    // ε閉包の索引 (必要になったときに作る)
+    // ノードiのε閉包(i自身を含む)はclosureTargetのclosureStart[i]からclosureStart[i+1]-1までに昇順で並ぶ
+    int[] closureStart;
+    int[] closureTarget;
+
+    // 1回の照合でたどる状態の延べ数の上限 (超えたらResourceLimitException)
+    long maxSteps = Long.MAX_VALUE;
+
+    public NFA(){
+        // 開始状態0と終了状態1だけからなり、遷移のないNFA
+        this(new Builder(), 0, 1);
+    }
+
+    NFA(NFA nfa){
+        // nfaとグラフ・索引を共有する
+        size = nfa.size;
+        start = nfa.start;
+        end = nfa.end;
+        edgeStart = nfa.edgeStart;
+        edgeLow = nfa.edgeLow;
+        edgeHigh = nfa.edgeHigh;
+        edgeTarget = nfa.edgeTarget;
+        epsilonStart = nfa.epsilonStart;
+        epsilonTarget = nfa.epsilonTarget;
+        closureStart = nfa.closureStart;
+        closureTarget = nfa.closureTarget;
+    }
+
+    private NFA(Builder builder, int start, int end){
+        builder.node(Math.max(start, end));
+        this.start = start;
+        this.end = end;
+        _load(builder);
+    }
+
+    private static final class Builder {
+        // 遷移を追加していき、最後にノードごとに並べた配列にする
+        int size;
+        int[] from = new int[16];
+        char[] low = new char[16];
+        char[] high = new char[16];
+        int[] to = new int[16];
+        int edges;
+        int[] epsilonFrom = new int[16];
+        int[] epsilonTo = new int[16];
+        int epsilons;
+
+        int node(){
+            return size++;
+        }
+
+        void node(int id){
+            // id以下のノードがあるようにする
+            size = Math.max(size, id + 1);
         }
 
-        public void addTransition(Character c, Node n){
-            if(transitionsTo.containsKey(c)){
-                transitionsTo.get(c).add(n);
-            } else {
-                transitionsTo.put(c, new HashSet<>((List.of(n))));
+        void edge(int from, char low, char high, int to){
+            if(edges == this.from.length){
+                this.from = Arrays.copyOf(this.from, edges * 2);
+                this.low = Arrays.copyOf(this.low, edges * 2);
+                this.high = Arrays.copyOf(this.high, edges * 2);
+                this.to = Arrays.copyOf(this.to, edges * 2);
             }
-            if(n.transitionsFrom.containsKey(c)){
-                n.transitionsFrom.get(c).add(this);
-            } else {
-                n.transitionsFrom.put(c, new HashSet<>((List.of(this))));
+            this.from[edges] = from;
+            this.low[edges] = low;
+            this.high[edges] = high;
+            this.to[edges] = to;
+            edges++;
+        }
+
+        void epsilon(int from, int to){
+            if(epsilons == epsilonFrom.length){
+                epsilonFrom = Arrays.copyOf(epsilonFrom, epsilons * 2);
+                epsilonTo = Arrays.copyOf(epsilonTo, epsilons * 2);
             }
+            epsilonFrom[epsilons] = from;
+            epsilonTo[epsilons] = to;
+            epsilons++;
+        }
+    }
+
+    private void _load(Builder builder){
+        // Builderの遷移をノードごとに並べ、重複を除く
+        size = builder.size;
+        long[] keys = new long[builder.edges];
+        for(int e = 0; e < builder.edges; e++){
+            keys[e] = ((long) builder.low[e] << 48) | ((long) builder.high[e] << 32) | builder.to[e];
         }
+        edgeStart = new int[size + 1];
+        long[] sorted = _group(builder.from, keys, builder.edges, edgeStart);
+        edgeLow = new char[sorted.length];
+        edgeHigh = new char[sorted.length];
+        edgeTarget = new int[sorted.length];
+        for(int e = 0; e < sorted.length; e++){
+            edgeLow[e] = (char) (sorted[e] >>> 48);
+            edgeHigh[e] = (char) (sorted[e] >>> 32);
+            edgeTarget[e] = (int) sorted[e];
+        }
+
+        keys = new long[builder.epsilons];
+        for(int e = 0; e < builder.epsilons; e++){
+            keys[e] = builder.epsilonTo[e];
+        }
+        epsilonStart = new int[size + 1];
+        sorted = _group(builder.epsilonFrom, keys, builder.epsilons, epsilonStart);
+        epsilonTarget = new int[sorted.length];
+        for(int e = 0; e < sorted.length; e++){
+            epsilonTarget[e] = (int) sorted[e];
+        }
+        closureStart = null;
+        closureTarget = null;
+    }
 
-        public void deleteTransition(Character c, Node n){
-            if(transitionsTo.containsKey(c)){
-                transitionsTo.get(c).remove(n);
+    private long[] _group(int[] from, long[] keys, int count, int[] starts){
+        // keys[e]をfrom[e]ごとにまとめて並べ、重複を除く
+        // starts[i]にノードiの先頭の位置を書き込む
+        int[] counts = new int[size + 1];
+        for(int e = 0; e < count; e++){
+            counts[from[e] + 1]++;
+        }
+        for(int i = 0; i < size; i++){
+            counts[i + 1] += counts[i];
+        }
+        long[] grouped = new long[count];
+        int[] next = counts.clone();
+        for(int e = 0; e < count; e++){
+            grouped[next[from[e]]++] = keys[e];
+        }
+        int length = 0;
+        for(int i = 0; i < size; i++){
+            Arrays.sort(grouped, counts[i], counts[i + 1]);
+            starts[i] = length;
+            for(int e = counts[i]; e < counts[i + 1]; e++){
+                if(e == counts[i] || grouped[e] != grouped[e - 1]){
+                    grouped[length++] = grouped[e];
+                }
             }
-            if(n.transitionsFrom.containsKey(c)){
-                n.transitionsFrom.get(c).remove(this);
+        }
+        starts[size] = length;
+        return Arrays.copyOf(grouped, length);
+    }
+
+    public static NFA fromAST(AST ast){
+        return fromAST(ast, AST.Repeat.DEFAULT_UNROLL_LIMIT);
+    }
+
+    public static NFA fromAST(AST ast, int unrollLimit){
+        // トンプソン構成法
+        // 「ノードfromからノードtoへ、astに一致する文字列で進める」という仕事をスタックで処理する
+        // 再帰しないので、深いASTでもスタックがあふれない
+        // 和の選択肢は同じfrom, toの間に並べ、連結は間にノードを1つ、繰り返しはノードを1つ置いてそこで回る
+        // 文字集合は範囲ごとに1本の遷移にする
+        // 回数指定の繰り返しは展開する (NFAは回数を数えられないので、展開後の大きさがAST.Repeat.maxUnrolledSizeを超えれば例外)
+        // どの部分もfromへ入る遷移やtoから出る遷移を作らないので、from, toを共有してよい
+        Builder builder = new Builder();
+        int start = builder.node();
+        int end = builder.node();
+        ArrayDeque<AST> asts = new ArrayDeque<>();
+        ArrayDeque<int[]> ends = new ArrayDeque<>();
+        asts.push(ast);
+        ends.push(new int[]{start, end});
+        while(!asts.isEmpty()){
+            AST t = asts.pop();
+            int[] e = ends.pop();
+            int from = e[0];
+            int to = e[1];
+            switch (t) {
+                case AST.Char c -> builder.edge(from, c.c, c.c, to);
+                case AST.CharSet s -> {
+                    for(int i = 0; i < s.ranges.length; i += 2){
+                        builder.edge(from, s.ranges[i], s.ranges[i + 1], to);
+                    }
+                }
+                case AST.Union<?, ?> u -> {
+                    asts.push(u.t2);
+                    ends.push(new int[]{from, to});
+                    asts.push(u.t1);
+                    ends.push(new int[]{from, to});
+                }
+                case AST.Concat<?, ?> u -> {
+                    int middle = builder.node();
+                    asts.push(u.t2);
+                    ends.push(new int[]{middle, to});
+                    asts.push(u.t1);
+                    ends.push(new int[]{from, middle});
+                }
+                case AST.Star<?> u -> {
+                    //  from -ε-> loop -ε-> to、loopからloopへ戻る道がt
+                    int loop = builder.node();
+                    builder.epsilon(from, loop);
+                    builder.epsilon(loop, to);
+                    asts.push(u.t);
+                    ends.push(new int[]{loop, loop});
+                }
+                case AST.Plus<?> u -> {
+                    //  from -ε-> head -t-> tail -ε-> to、tailからheadへ戻る
+                    int head = builder.node();
+                    int tail = builder.node();
+                    builder.epsilon(from, head);
+                    builder.epsilon(tail, head);
+                    builder.epsilon(tail, to);
+                    asts.push(u.t);
+                    ends.push(new int[]{head, tail});
+                }
+                case AST.Optional<?> u -> {
+                    builder.epsilon(from, to);
+                    asts.push(u.t);
+                    ends.push(new int[]{from, to});
+                }
+                case AST.Repeat<?> u -> {
+                    //  from -t-> p1 -t-> ... -t-> pmin -t-> ... -t-> to
+                    // pmin以降の各ノードからtoへε遷移する (上限がなければpminからtoまでを繰り返しにする)
+                    if(u.unrolledSize() > AST.Repeat.maxUnrolledSize(unrollLimit)){
+                        throw new ResourceLimitException(ResourceLimitException.Kind.REPETITION, u.unrolledSize(), AST.Repeat.maxUnrolledSize(unrollLimit));
+                    }
+                    int copies = u.max == AST.Repeat.UNBOUNDED ? u.min : u.max;
+                    int node = from;
+                    for(int k = 0; k < copies; k++){
+                        int next = k == copies - 1 && u.max != AST.Repeat.UNBOUNDED ? to : builder.node();
+                        if(k >= u.min){
+                            builder.epsilon(node, to);
+                        }
+                        asts.push(u.t);
+                        ends.push(new int[]{node, next});
+                        node = next;
+                    }
+                    if(u.max == AST.Repeat.UNBOUNDED){
+                        asts.push(new AST.Star<>(u.t));
+                        ends.push(new int[]{node, to});
+                    }
+                }
+                case AST.Group<?> u -> {
+                    asts.push(u.t);
+                    ends.push(new int[]{from, to});
+                }
             }
         }
+        return new NFA(builder, start, end);
     }
 
-    Node start;
-    Node end;
-    HashMap<Integer ,Node> nodes;
-    public NFA(){
-        start = new Node();
-        start.id = 0;
-        end = new Node();
-        end.id = 1;
-        nodes = new HashMap<>();
-        nodes.put(0, start);
-        nodes.put(1, end);
+    static NFA unionOf(List<NFA> nfas, int[] ends){
+        // 新しい開始状態からそれぞれのNFAの開始状態へε遷移するNFA
+        // 受理はそれぞれのNFAの終了状態で判定するので、新しい終了状態へはどこからも遷移しない
+        // ends[i]にはnfas.get(i)の終了状態のノードidが入る
+        Builder builder = new Builder();
+        int start = builder.node();
+        int end = builder.node();
+        for(int i = 0; i < nfas.size(); i++){
+            NFA nfa = nfas.get(i);
+            int offset = builder.size;
+            builder.node(offset + nfa.size - 1);
+            for(int n = 0; n < nfa.size; n++){
+                for(int e = nfa.edgeStart[n]; e < nfa.edgeStart[n + 1]; e++){
+                    builder.edge(offset + n, nfa.edgeLow[e], nfa.edgeHigh[e], offset + nfa.edgeTarget[e]);
+                }
+                for(int e = nfa.epsilonStart[n]; e < nfa.epsilonStart[n + 1]; e++){
+                    builder.epsilon(offset + n, offset + nfa.epsilonTarget[e]);
+                }
+            }
+            builder.epsilon(start, offset + nfa.start);
+            ends[i] = offset + nfa.end;
+        }
+        NFA nfa = new NFA(builder, start, end);
+        nfa.index();
+        return nfa;
     }
 
-    private static HashMap<Integer, Node> _concatNodes(HashMap<Integer, Node>... nodesList){
-        HashMap<Integer, Node> nodes = new HashMap<>();
-        HashSet<Node> values = new HashSet<>();
-        for(HashMap<Integer, Node> nodesMap : nodesList){
-            values.addAll(nodesMap.values());
+    NFA reverse(){
+        // すべての遷移の向きを逆にし、開始状態と終了状態を入れ替えたNFA
+        // ノードidは元のNFAと同じ
+        Builder builder = new Builder();
+        builder.node(size - 1);
+        for(int n = 0; n < size; n++){
+            for(int e = edgeStart[n]; e < edgeStart[n + 1]; e++){
+                builder.edge(edgeTarget[e], edgeLow[e], edgeHigh[e], n);
+            }
+            for(int e = epsilonStart[n]; e < epsilonStart[n + 1]; e++){
+                builder.epsilon(epsilonTarget[e], n);
+            }
         }
-        List<Node> valuesList = new ArrayList<>(values);
-        for(int i = 0; i < values.size(); i++){
-            nodes.put(i, valuesList.get(i));
-            valuesList.get(i).id = i;
+        NFA nfa = new NFA(builder, end, start);
+        nfa.index();
+        return nfa;
+    }
+
+    void index(){
+        // ε閉包の索引がなければ作る
+        if(closureStart == null){
+            _index();
         }
-        return nodes;
     }
 
-    public static NFA fromAST(AST ast){
-        return switch (ast) {
-            case AST.Char c -> {
-                NFA nfa = new NFA();
-                nfa.start.addTransition(c.c, nfa.end);
-                yield nfa;
-            }
-            case AST.Union<?, ?> t -> {
-                NFA nfa1 = fromAST(t.t1);
-                NFA nfa2 = fromAST(t.t2);
-                NFA nfa = new NFA();
-                nfa.start.addTransition(null, nfa1.start);
-                nfa.start.addTransition(null, nfa2.start);
-                nfa1.end.addTransition(null, nfa.end);
-                nfa2.end.addTransition(null, nfa.end);
-                nfa.nodes = _concatNodes(nfa.nodes, nfa1.nodes, nfa2.nodes);
-                yield nfa;
-            }
-            case AST.Concat<?, ?> t -> {
-                NFA nfa1 = fromAST(t.t1);
-                NFA nfa2 = fromAST(t.t2);
-                nfa1.end.addTransition(null, nfa2.start);
-                NFA nfa = new NFA();
-                nfa.start = nfa1.start;
-                nfa.end = nfa2.end;
-                nfa.nodes = _concatNodes(nfa1.nodes, nfa2.nodes);
-                yield nfa;
-            }
-            case AST.Star<?> t -> {
-                NFA nfa1 = fromAST(t.t);
-                NFA nfa = new NFA();
-                nfa.start.addTransition(null, nfa1.start);
-                nfa.start.addTransition(null, nfa.end);
-                nfa1.end.addTransition(null, nfa1.start);
-                nfa1.end.addTransition(null, nfa.end);
-                nfa.nodes = _concatNodes(nfa.nodes, nfa1.nodes);
-                yield nfa;
-            }
-            case AST.Group<?> t -> fromAST(t.t);
-        };
-    }
-
-    private HashSet<Node> _epsilonClosure(HashSet<Node> nodes){
-        nodes = new HashSet<>(nodes);
-        HashSet<Node> epsilon = new HashSet<>(nodes);
-        for(int i = 0; i < this.nodes.size(); i++){
-            for(Node n : nodes){
-                if(n.transitionsTo.containsKey(null)){
-                    epsilon.addAll(n.transitionsTo.get(null));
-                }
-            }
-            nodes.addAll(epsilon);
-        }
-        return nodes;
-    }
-
-    public boolean match(String s){
-        HashSet<Node> current = new HashSet<>((List.of(start)));
-        for(int i = 0; i < s.length(); i++){
-            current = _epsilonClosure(current);
-            HashSet<Node> next = new HashSet<>();
-            for(Node n : current){
-                if(n.transitionsTo.containsKey(s.charAt(i))){
-                    next.addAll(n.transitionsTo.get(s.charAt(i)));
+    private void _index(){
+        // 各ノードからε遷移を深さ優先でたどる
+        int[] mark = new int[size];
+        Arrays.fill(mark, -1);
+        int[] stack = new int[size];
+        int[] starts = new int[size + 1];
+        int[] targets = new int[size];
+        int length = 0;
+        for(int i = 0; i < size; i++){
+            starts[i] = length;
+            int top = 0;
+            stack[top++] = i;
+            mark[i] = i;
+            while(top > 0){
+                int n = stack[--top];
+                if(length == targets.length){
+                    targets = Arrays.copyOf(targets, length * 2);
+                }
+                targets[length++] = n;
+                for(int e = epsilonStart[n]; e < epsilonStart[n + 1]; e++){
+                    int m = epsilonTarget[e];
+                    if(mark[m] != i){
+                        mark[m] = i;
+                        stack[top++] = m;
+                    }
+                }
+            }
+            Arrays.sort(targets, starts[i], length);
+        }
+        starts[size] = length;
+        closureStart = starts;
+        closureTarget = Arrays.copyOf(targets, length);
+    }
+
+    List<char[]> ranges(){
+        // 遷移に現れる文字の範囲
+        List<char[]> ranges = new ArrayList<>();
+        for(int e = 0; e < edgeLow.length; e++){
+            ranges.add(new char[]{edgeLow[e], edgeHigh[e]});
+        }
+        return ranges;
+    }
+
+    BitSet closure(BitSet ids){
+        // ノードidの集合のε閉包
+        index();
+        BitSet result = new BitSet(size);
+        for(int i = ids.nextSetBit(0); i >= 0; i = ids.nextSetBit(i + 1)){
+            for(int k = closureStart[i]; k < closureStart[i + 1]; k++){
+                result.set(closureTarget[k]);
+            }
+        }
+        return result;
+    }
+
+    BitSet step(BitSet ids, char c){
+        // ノードidの集合から文字cで遷移できるノードidの集合
+        BitSet result = new BitSet();
+        for(int i = ids.nextSetBit(0); i >= 0; i = ids.nextSetBit(i + 1)){
+            for(int e = edgeStart[i]; e < edgeStart[i + 1]; e++){
+                if(edgeLow[e] <= c && c <= edgeHigh[e]){
+                    result.set(edgeTarget[e]);
                 }
             }
+        }
+        return result;
+    }
+
+    public boolean match(CharSequence s){
+        // 状態集合をSparseSetで持ち、遷移先の(事前に求めた)ε閉包を加えて進める
+        index();
+        SparseSet current = new SparseSet(size);
+        _addClosure(current, start);
+        return simulate(current, new SparseSet(size), s, 0, 0).contains(end);
+    }
+
+    final SparseSet simulate(SparseSet current, SparseSet next, CharSequence s, int from, long steps){
+        // 状態集合currentから入力のfrom文字目以降を読み、読み終えたときの状態集合 (currentかnextのどちらか) を返す
+        // stepsはそれまでに数えた手間で、maxStepsを超えたら例外
+        for(int i = from; i < s.length() && current.size > 0; i++){
+            if((steps += current.size) > maxSteps){
+                throw new ResourceLimitException(ResourceLimitException.Kind.STEPS, steps, maxSteps);
+            }
+            step(current, s.charAt(i), next);
+            SparseSet t = current;
             current = next;
+            next = t;
         }
-        current = _epsilonClosure(current);
-        return current.contains(end);
+        return current;
     }
 
-    public void removeEpsilon(){
-        for(Node n: nodes.values()){
-            if(!n.transitionsTo.containsKey(null)){
-                continue;
-            }
-            HashSet<Node> epsilon = new HashSet<>(n.transitionsTo.get(null));
-            epsilon = _epsilonClosure(epsilon);
-            for(Node m : epsilon){
-                if(m == n){
-                    continue;
-                }
-                for(Character c : m.transitionsTo.keySet()){
-                    if(c == null){
-                        continue;
-                    }
-                    for(Node o : m.transitionsTo.get(c)){
-                        n.addTransition(c, o);
-                    }
+    final void step(SparseSet current, char c, SparseSet next){
+        // 状態集合currentから文字cで遷移し、そのε閉包をnextに入れる
+        next.clear();
+        for(int j = 0; j < current.size; j++){
+            int n = current.dense[j];
+            for(int e = edgeStart[n]; e < edgeStart[n + 1]; e++){
+                if(edgeLow[e] <= c && c <= edgeHigh[e]){
+                    _addClosure(next, edgeTarget[e]);
                 }
             }
         }
-        for(Node n : nodes.values()){
-            if(!(n == start || n == end)){
-                n.transitionsTo.remove(null);
-                n.transitionsFrom.remove(null);
+    }
+
+    final void step(BitSet current, char c, SparseSet next){
+        // BitSetの状態集合から同じように遷移する
+        next.clear();
+        for(int n = current.nextSetBit(0); n >= 0; n = current.nextSetBit(n + 1)){
+            for(int e = edgeStart[n]; e < edgeStart[n + 1]; e++){
+                if(edgeLow[e] <= c && c <= edgeHigh[e]){
+                    _addClosure(next, edgeTarget[e]);
+                }
+            }
+        }
+    }
+
+    final void initial(SparseSet set){
+        // 開始状態のε閉包
+        set.clear();
+        _addClosure(set, start);
+    }
+
+    private void _addClosure(SparseSet set, int n){
+        if(set.contains(n)){
+            return;
+        }
+        for(int k = closureStart[n]; k < closureStart[n + 1]; k++){
+            if(!set.contains(closureTarget[k])){
+                set.add(closureTarget[k]);
+            }
+        }
+    }
+
+    public void removeEpsilon(){
+        // 各ノードに、ε閉包に含まれるノードの文字遷移をすべて持たせ、ε遷移を取り除く
+        // ε閉包に終了状態を含むノードは受理できるように、終了状態へのε遷移だけを残す
+        index();
+        Builder builder = new Builder();
+        builder.node(size - 1);
+        for(int n = 0; n < size; n++){
+            boolean accepting = false;
+            for(int k = closureStart[n]; k < closureStart[n + 1]; k++){
+                int m = closureTarget[k];
+                accepting |= m == end;
+                for(int e = edgeStart[m]; e < edgeStart[m + 1]; e++){
+                    builder.edge(n, edgeLow[e], edgeHigh[e], edgeTarget[e]);
+                }
+            }
+            if(accepting && n != end){
+                builder.epsilon(n, end);
             }
         }
+        _load(builder);
+        _index();
     }
-}
\ No newline at end of file
+}
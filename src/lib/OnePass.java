@@ -0,0 +1,184 @@
+package lib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+final class OnePass {
+    // キャプチャつきのProgのうち、照合中に生きているスレッドが常に1つだけのもの (one-pass) を決定的な表にしたもの
+    // 状態は開始と、文字を読む命令(CHAR, SET)の1つ1つで、状態から次の文字で進む先とその途中で記録するスロットが1つに決まる
+    // どの状態でも、ε遷移でたどり着く文字を読む命令の文字集合が互いに重ならなければone-passである
+    // 例えば (\w+)@(\w+)\.com や (a|b)c はone-passだが、(a*)(a*) や (a|ab)c はそうでない
+    // Pike VMのようにスレッドのスロットを写さないので、照合中の確保はない
+    // 作った後は変更しないので、複数のスレッドで共有してよい
+    static final int MAX_CELLS = 1 << 20;
+
+    final CharClasses classes;
+    final int classCount;
+    final int slots;
+    // table[state * classCount + c]: 状態stateからクラスcの文字で進む遷移の番号 (なければ-1)
+    final int[] table;
+    // 遷移eの先の状態と、遷移の前に今の位置を記録するスロット (記録する順)
+    final int[] target;
+    final int[][] saves;
+    // 状態stateで入力が終わったときに記録するスロット (受理しなければnull)
+    final int[][] accept;
+
+    private OnePass(CharClasses classes, int slots, int[] table, int[] target, int[][] saves, int[][] accept){
+        this.classes = classes;
+        this.classCount = classes.count;
+        this.slots = slots;
+        this.table = table;
+        this.target = target;
+        this.saves = saves;
+        this.accept = accept;
+    }
+
+    static OnePass of(Prog prog){
+        // one-passでなければ、または表がMAX_CELLSより大きくなるならnull
+        if(prog.slots == 0 || prog.repeats.length > 0){
+            return null;
+        }
+        // 状態0は開始、文字を読む命令pcは状態stateOf[pc]
+        int[] stateOf = new int[prog.size];
+        List<char[]> sets = new ArrayList<>();
+        int states = 1;
+        for(int pc = 0; pc < prog.size; pc++){
+            if(prog.op[pc] == Prog.CHAR || prog.op[pc] == Prog.SET){
+                stateOf[pc] = states++;
+                sets.add(prog.op[pc] == Prog.CHAR ? new char[]{prog.ch[pc], prog.ch[pc]} : prog.sets[prog.x[pc]]);
+            }
+        }
+        CharClasses classes = CharClasses.of(sets);
+        int k = classes.count;
+        if((long) states * k > MAX_CELLS){
+            return null;
+        }
+        int[] entry = new int[states];
+        int[][] classesOf = new int[prog.size][];
+        for(int pc = 0; pc < prog.size; pc++){
+            if(prog.op[pc] == Prog.CHAR || prog.op[pc] == Prog.SET){
+                entry[stateOf[pc]] = pc + 1;
+                classesOf[pc] = _classes(prog, pc, classes);
+            }
+        }
+
+        int[] table = new int[states * k];
+        Arrays.fill(table, -1);
+        int[] target = new int[16];
+        int[][] saves = new int[16][];
+        int edges = 0;
+        int[][] accept = new int[states][];
+
+        // 深さ優先でたどる途中のSAVEは、(スロット, 親)の木で持つ
+        int[] mark = new int[prog.size];
+        Arrays.fill(mark, -1);
+        int[] stack = new int[2 * prog.size + 1];
+        int[] paths = new int[2 * prog.size + 1];
+        int[] slot = new int[16];
+        int[] parent = new int[16];
+        for(int s = 0; s < states; s++){
+            int nodes = 0;
+            int top = 0;
+            stack[top] = entry[s];
+            paths[top++] = -1;
+            while(top > 0){
+                int pc = stack[--top];
+                int path = paths[top];
+                if(mark[pc] == s){
+                    continue;
+                }
+                mark[pc] = s;
+                switch (prog.op[pc]) {
+                    case Prog.JMP -> {
+                        stack[top] = prog.x[pc];
+                        paths[top++] = path;
+                    }
+                    case Prog.SPLIT -> {
+                        stack[top] = prog.y[pc];
+                        paths[top++] = path;
+                        stack[top] = prog.x[pc];
+                        paths[top++] = path;
+                    }
+                    case Prog.SAVE -> {
+                        if(nodes == slot.length){
+                            slot = Arrays.copyOf(slot, nodes * 2);
+                            parent = Arrays.copyOf(parent, nodes * 2);
+                        }
+                        slot[nodes] = prog.x[pc];
+                        parent[nodes] = path;
+                        stack[top] = pc + 1;
+                        paths[top++] = nodes++;
+                    }
+                    case Prog.MATCH -> accept[s] = _path(slot, parent, path);
+                    default -> {
+                        // 文字を読む命令: その文字集合のクラスがすでに他の命令のものなら、one-passではない
+                        if(edges == target.length){
+                            target = Arrays.copyOf(target, edges * 2);
+                            saves = Arrays.copyOf(saves, edges * 2);
+                        }
+                        target[edges] = stateOf[pc];
+                        saves[edges] = _path(slot, parent, path);
+                        for(int c : classesOf[pc]){
+                            if(table[s * k + c] >= 0){
+                                return null;
+                            }
+                            table[s * k + c] = edges;
+                        }
+                        edges++;
+                    }
+                }
+            }
+        }
+        return new OnePass(classes, prog.slots, table, Arrays.copyOf(target, edges), Arrays.copyOf(saves, edges), accept);
+    }
+
+    private static int[] _classes(Prog prog, int pc, CharClasses classes){
+        // 命令pcが読む文字のクラスの一覧
+        int[] result = new int[classes.count];
+        int length = 0;
+        for(int c = 0; c < classes.count; c++){
+            char r = classes.representative(c);
+            if(prog.op[pc] == Prog.CHAR ? prog.ch[pc] == r : AST.CharSet.contains(prog.sets[prog.x[pc]], r)){
+                result[length++] = c;
+            }
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    private static int[] _path(int[] slot, int[] parent, int path){
+        // 木のpathから根までのスロットを、記録した順に並べる
+        int length = 0;
+        for(int n = path; n >= 0; n = parent[n]){
+            length++;
+        }
+        int[] result = new int[length];
+        for(int n = path; n >= 0; n = parent[n]){
+            result[--length] = slot[n];
+        }
+        return result;
+    }
+
+    boolean match(CharSequence s, int[] offsets){
+        // 入力全体が一致すれば、グループkの範囲をoffsets[2k]からoffsets[2k+1]に書いてtrueを返す
+        Arrays.fill(offsets, 0, slots, -1);
+        int state = 0;
+        for(int i = 0; i < s.length(); i++){
+            int e = table[state * classCount + classes.classOf(s.charAt(i))];
+            if(e < 0){
+                return false;
+            }
+            for(int slot : saves[e]){
+                offsets[slot] = i;
+            }
+            state = target[e];
+        }
+        if(accept[state] == null){
+            return false;
+        }
+        for(int slot : accept[state]){
+            offsets[slot] = s.length();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,346 @@
+package lib;
+
+import java.util.*;
+
+public final class Optimizer {
+    // 構文解析で得たASTを、同じ言語を表すより小さなASTに書き換える
+    // NFAの状態が減れば、シミュレーションが速くなりDFAも小さくなる
+    //
+    // - グループを外す
+    // - 繰り返しの繰り返し (x*)* を x* にし、連続する同じ繰り返し x*x* を x* にする
+    // - 量指定子の重ね掛けをまとめる ((x+)? や (x?)+ は x*、(x+)+ は x+、(x?)? は x?)
+    // - 和の選択肢を先頭の要素でまとめ、トライにする (abc|abd|ae は a(b(c|d)|e))
+    // - 一文字の選択肢を文字集合にする (a|b|c は [a-c])
+    // 再帰せずに仕事をスタックで処理するので、長い連結や選択肢の多い和、深い入れ子でもスタックがあふれない
+    private Optimizer(){
+    }
+
+    public static AST optimize(AST ast){
+        // 「astを書き換えて結果のスタックに積む」と「書き換えた子を結果のスタックから取り出して組み立てる」という仕事をスタックで処理する
+        // 後でする仕事は先に積むので、積んだ逆の順に実行される
+        ArrayDeque<Runnable> work = new ArrayDeque<>();
+        ArrayDeque<AST> results = new ArrayDeque<>();
+        _push(work, results, ast);
+        while(!work.isEmpty()){
+            work.pop().run();
+        }
+        return results.pop();
+    }
+
+    private static void _push(ArrayDeque<Runnable> work, ArrayDeque<AST> results, AST ast){
+        work.push(() -> _optimize(ast, work, results));
+    }
+
+    private static void _optimize(AST ast, ArrayDeque<Runnable> work, ArrayDeque<AST> results){
+        while(ast instanceof AST.Group<?> t){
+            ast = t.t;
+        }
+        switch (ast) {
+            case AST.Char c -> results.push(c);
+            case AST.CharSet t -> results.push(t);
+            case AST.Star<?> t -> {
+                work.push(() -> results.push(_star(results.pop())));
+                _push(work, results, t.t);
+            }
+            case AST.Plus<?> t -> {
+                work.push(() -> results.push(_plus(results.pop())));
+                _push(work, results, t.t);
+            }
+            case AST.Optional<?> t -> {
+                work.push(() -> results.push(_optional(results.pop())));
+                _push(work, results, t.t);
+            }
+            case AST.Repeat<?> t -> {
+                work.push(() -> results.push(new AST.Repeat<>(results.pop(), t.min, t.max)));
+                _push(work, results, t.t);
+            }
+            case AST.Concat<?, ?> _ -> {
+                List<AST> elements = _elements(ast);
+                work.push(() -> results.push(_concat(_sequence(_pop(results, elements.size())))));
+                for(int i = elements.size() - 1; i >= 0; i--){
+                    _push(work, results, elements.get(i));
+                }
+            }
+            case AST.Union<?, ?> _ -> {
+                List<AST> alternatives = _alternatives(ast);
+                work.push(() -> {
+                    List<AST> optimized = new ArrayList<>();
+                    for(AST alternative : _pop(results, alternatives.size())){
+                        _addAlternative(optimized, alternative);
+                    }
+                    results.push(_union(optimized));
+                });
+                for(int i = alternatives.size() - 1; i >= 0; i--){
+                    _push(work, results, alternatives.get(i));
+                }
+            }
+            case AST.Group<?> t -> _push(work, results, t.t);
+        }
+    }
+
+    private static List<AST> _pop(ArrayDeque<AST> results, int n){
+        // 結果のスタックから書き換え済みのn個を取り出し、積んだ順に並べる
+        AST[] popped = new AST[n];
+        for(int i = n - 1; i >= 0; i--){
+            popped[i] = results.pop();
+        }
+        return Arrays.asList(popped);
+    }
+
+    private static AST _star(AST t){
+        // (x*)* は x*、(x*|y)* は (x|y)* (+や?も同じ)
+        t = _unwrap(t);
+        if(t instanceof AST.Union<?, ?>){
+            List<AST> alternatives = _split(t);
+            boolean changed = false;
+            for(int i = 0; i < alternatives.size(); i++){
+                AST alternative = _unwrap(alternatives.get(i));
+                changed |= alternative != alternatives.get(i);
+                alternatives.set(i, alternative);
+            }
+            if(changed){
+                t = _union(alternatives);
+            }
+        }
+        return new AST.Star<>(t);
+    }
+
+    private static AST _plus(AST t){
+        return switch (t) {
+            case AST.Star<?> _, AST.Plus<?> _ -> t;
+            case AST.Optional<?> s -> new AST.Star<>(s.t);
+            default -> new AST.Plus<>(t);
+        };
+    }
+
+    private static AST _optional(AST t){
+        return switch (t) {
+            case AST.Star<?> _, AST.Optional<?> _ -> t;
+            case AST.Plus<?> s -> new AST.Star<>(s.t);
+            default -> new AST.Optional<>(t);
+        };
+    }
+
+    private static AST _unwrap(AST t){
+        // 繰り返しの中では、量指定子を外しても言語が変わらない
+        while(true){
+            switch (t) {
+                case AST.Star<?> s -> t = s.t;
+                case AST.Plus<?> s -> t = s.t;
+                case AST.Optional<?> s -> t = s.t;
+                default -> {
+                    return t;
+                }
+            }
+        }
+    }
+
+    private static List<AST> _elements(AST ast){
+        // 連結を書き換え前の要素の列にする
+        // 括弧の中の連結 a(b(cd)) も同じ列に平らにするので、書き換えた連結を外側でまた平らにし直さない
+        List<AST> elements = new ArrayList<>();
+        ArrayDeque<AST> stack = new ArrayDeque<>();
+        stack.push(ast);
+        while(!stack.isEmpty()){
+            AST t = stack.pop();
+            while(t instanceof AST.Group<?> g){
+                t = g.t;
+            }
+            if(t instanceof AST.Concat<?, ?> c){
+                stack.push(c.t2);
+                stack.push(c.t1);
+            } else {
+                elements.add(t);
+            }
+        }
+        return elements;
+    }
+
+    private static List<AST> _sequence(List<AST> elements){
+        // 書き換え済みの要素を、連結を平らにしながら列にする
+        List<AST> sequence = new ArrayList<>();
+        for(AST optimized : elements){
+            List<AST> parts = optimized instanceof AST.Concat<?, ?> ? _flatten(optimized) : List.of(optimized);
+            for(AST part : parts){
+                // x*x* は x*
+                if(part instanceof AST.Star<?> && !sequence.isEmpty() && sequence.getLast().equals(part)){
+                    continue;
+                }
+                sequence.add(part);
+            }
+        }
+        return sequence;
+    }
+
+    private static List<AST> _flatten(AST ast){
+        // 書き換え済みの連結 (左結合) を要素の列にする
+        ArrayDeque<AST> elements = new ArrayDeque<>();
+        while(ast instanceof AST.Concat<?, ?> t){
+            elements.push(t.t2);
+            ast = t.t1;
+        }
+        elements.push(ast);
+        return new ArrayList<>(elements);
+    }
+
+    private static AST _concat(List<AST> sequence){
+        // 要素の列を左結合の連結にする
+        AST ast = sequence.getFirst();
+        for(int i = 1; i < sequence.size(); i++){
+            ast = new AST.Concat<>(ast, sequence.get(i));
+        }
+        return ast;
+    }
+
+    private static List<AST> _alternatives(AST ast){
+        // 和を書き換え前の選択肢の列にする
+        List<AST> alternatives = new ArrayList<>();
+        while(true){
+            while(ast instanceof AST.Group<?> t){
+                ast = t.t;
+            }
+            if(!(ast instanceof AST.Union<?, ?> t)){
+                break;
+            }
+            alternatives.add(t.t1);
+            ast = t.t2;
+        }
+        alternatives.add(ast);
+        return alternatives;
+    }
+
+    private static void _addAlternative(List<AST> alternatives, AST optimized){
+        if(optimized instanceof AST.Union<?, ?>){
+            alternatives.addAll(_split(optimized));
+        } else {
+            alternatives.add(optimized);
+        }
+    }
+
+    private static List<AST> _split(AST ast){
+        // 書き換え済みの和 (右結合) を選択肢の列にする
+        List<AST> alternatives = new ArrayList<>();
+        while(ast instanceof AST.Union<?, ?> t){
+            alternatives.add(t.t1);
+            ast = t.t2;
+        }
+        alternatives.add(ast);
+        return alternatives;
+    }
+
+    private static AST _union(List<AST> alternatives){
+        List<List<AST>> sequences = new ArrayList<>();
+        for(AST alternative : alternatives){
+            sequences.add(alternative instanceof AST.Concat<?, ?> ? _flatten(alternative) : List.of(alternative));
+        }
+        return _trie(sequences);
+    }
+
+    private static AST _trie(List<List<AST>> sequences){
+        // 先頭が同じ列が長く続くと (aaab|aaac のように) 和の入れ子が深くなるので、optimizeと同じく仕事をスタックで処理する
+        ArrayDeque<Runnable> work = new ArrayDeque<>();
+        ArrayDeque<AST> results = new ArrayDeque<>();
+        work.push(() -> _trie(sequences, work, results));
+        while(!work.isEmpty()){
+            work.pop().run();
+        }
+        return results.pop();
+    }
+
+    private static void _trie(List<List<AST>> sequences, ArrayDeque<Runnable> work, ArrayDeque<AST> results){
+        // 空でない要素の列の和を、先頭の要素でまとめて作り、結果のスタックに積む
+        // 先頭が同じ列が複数あれば、先頭の後に残りの列の和を続ける
+        // 残りが空になる列があれば (ab|a のように)、空を表すノードはないので先頭だけの選択肢を別に残す
+        // 前から順にする仕事を並べ、逆順に積む
+        LinkedHashMap<AST, List<List<AST>>> rests = new LinkedHashMap<>();
+        for(List<AST> sequence : sequences){
+            rests.computeIfAbsent(sequence.getFirst(), _ -> new ArrayList<>()).add(sequence.subList(1, sequence.size()));
+        }
+
+        List<Runnable> steps = new ArrayList<>();
+        List<AST> result = new ArrayList<>();
+        List<char[]> chars = new ArrayList<>();
+        for(Map.Entry<AST, List<List<AST>>> entry : rests.entrySet()){
+            AST first = entry.getKey();
+            boolean alone = false;
+            List<List<AST>> nonEmpty = new ArrayList<>();
+            for(List<AST> rest : entry.getValue()){
+                if(rest.isEmpty()){
+                    alone = true;
+                } else {
+                    nonEmpty.add(rest);
+                }
+            }
+            if(alone){
+                steps.add(() -> {
+                    switch (first) {
+                        case AST.Char c -> chars.add(new char[]{c.c, c.c});
+                        case AST.CharSet t -> chars.add(t.ranges);
+                        default -> result.add(first);
+                    }
+                });
+            }
+            if(nonEmpty.size() == 1){
+                steps.add(() -> {
+                    List<AST> sequence = new ArrayList<>();
+                    sequence.add(first);
+                    sequence.addAll(nonEmpty.getFirst());
+                    result.add(_concat(sequence));
+                });
+            } else if(!nonEmpty.isEmpty()){
+                // 残りの列がどれも空にならず同じ要素で始まるなら (aaab|aaac の aa)、その要素も先頭に続けてから和を作る
+                // 共通の先頭が長くても、入れ子の和を作っては平らにし直すことを繰り返さない
+                List<AST> prefix = new ArrayList<>();
+                prefix.add(first);
+                List<List<AST>> branch = nonEmpty;
+                for(AST shared = _shared(branch); shared != null; shared = _shared(branch)){
+                    prefix.add(shared);
+                    List<List<AST>> tails = new ArrayList<>();
+                    for(List<AST> rest : branch){
+                        tails.add(rest.subList(1, rest.size()));
+                    }
+                    branch = tails;
+                }
+                List<List<AST>> remaining = branch;
+                steps.add(() -> _trie(remaining, work, results));
+                steps.add(() -> {
+                    List<AST> sequence = new ArrayList<>(prefix);
+                    AST rest = results.pop();
+                    if(rest instanceof AST.Concat<?, ?>){
+                        sequence.addAll(_flatten(rest));
+                    } else {
+                        sequence.add(rest);
+                    }
+                    result.add(_concat(sequence));
+                });
+            }
+        }
+
+        steps.add(() -> {
+            // 一文字の選択肢は1つの文字集合にまとめて先頭に置く
+            if(!chars.isEmpty()){
+                char[] ranges = AST.CharSet.union(chars);
+                result.addFirst(ranges.length == 2 && ranges[0] == ranges[1] ? new AST.Char(ranges[0]) : new AST.CharSet(ranges));
+            }
+            AST ast = result.getLast();
+            for(int i = result.size() - 2; i >= 0; i--){
+                ast = new AST.Union<>(result.get(i), ast);
+            }
+            results.push(ast);
+        });
+        for(int i = steps.size() - 1; i >= 0; i--){
+            work.push(steps.get(i));
+        }
+    }
+
+    private static AST _shared(List<List<AST>> rests){
+        // すべての列が2つ以上の要素を持ち、先頭が同じならその先頭を、そうでなければnullを返す
+        AST first = rests.getFirst().getFirst();
+        for(List<AST> rest : rests){
+            if(rest.size() < 2 || !rest.getFirst().equals(first)){
+                return null;
+            }
+        }
+        return first;
+    }
+}
@@ -0,0 +1,227 @@
+package lib;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntPredicate;
+
+public final class ParallelScanner {
+    // 大きな入力を区間に分け、ForkJoinPoolで並列にDFAを走らせる
+    //
+    // 入力全体の照合: 区間の始まりの状態は前の区間を読み終えるまで分からないので、
+    // 各区間ではすべての状態から同時に読み進めて「始まりの状態→終わりの状態」の対応を作り、最後に順に合成する
+    // 同じ状態に合流した読み進めはまとめるので、たいていは数文字で1本になる
+    //
+    // 行ごとの照合: 区間を'\n'の直後で切れば、区間ごとに独立して照合できる
+    // 真ん中に最も近い'\n'で分け、'\n'がなく1行だけの区間は、その行を入力全体の照合と同じように分けて読む
+    //
+    // ForkJoinTaskはSerializableだが、区間の仕事は直列化しないのでserialVersionUIDは持たない
+    public static final int DEFAULT_CHUNK = 1 << 16;
+
+    final DFA dfa;
+    final ForkJoinPool pool;
+    final int chunk;
+
+    public ParallelScanner(DFA dfa){
+        this(dfa, ForkJoinPool.commonPool(), DEFAULT_CHUNK);
+    }
+
+    public ParallelScanner(DFA dfa, ForkJoinPool pool, int chunk){
+        this.dfa = dfa;
+        this.pool = pool;
+        this.chunk = Math.max(1, chunk);
+    }
+
+    public boolean match(CharSequence s){
+        // 入力全体がDFAに一致するか
+        int[] map = pool.invoke(new Transitions(s, 0, s.length()));
+        return dfa.accept[map[dfa.initial]];
+    }
+
+    public long countMatchingLines(CharSequence s){
+        // 一致する行の数
+        return pool.invoke(new CharLines(s, 0, s.length()));
+    }
+
+    public long countMatchingLines(ByteBuffer buffer){
+        // UTF-8のバイト列 (メモリにマップしたファイルなど) で一致する行の数
+        // bufferの位置は変えない
+        return pool.invoke(new ByteLines(buffer, buffer.position(), buffer.limit()));
+    }
+
+    int[] run(CharSequence s, int from, int to){
+        // すべての状態から同時にs[from, to)を読み、各状態から始めたときの終わりの状態を返す
+        // lanesは今たどっている相異なる状態、owner[q]は状態qから始めた読み進めがどのlaneにいるか
+        int n = dfa.stateCount();
+        int k = dfa.classCount;
+        int[] table = dfa.table;
+        char[][] pages = dfa.classes.pages;
+
+        int[] lanes = new int[n];
+        int[] owner = new int[n];
+        int[] slot = new int[n];
+        int[] remap = new int[n];
+        for(int q = 0; q < n; q++){
+            lanes[q] = q;
+            owner[q] = q;
+            slot[q] = -1;
+        }
+        int count = n;
+        for(int i = from; i < to; i++){
+            char c = s.charAt(i);
+            int cls = pages[c >>> 8][c & 0xFF];
+            for(int l = 0; l < count; l++){
+                lanes[l] = table[lanes[l] * k + cls];
+            }
+
+            // 合流したlaneをまとめる
+            int merged = 0;
+            for(int l = 0; l < count; l++){
+                int q = lanes[l];
+                if(slot[q] < 0){
+                    slot[q] = merged;
+                    lanes[merged++] = q;
+                }
+                remap[l] = slot[q];
+            }
+            for(int l = 0; l < merged; l++){
+                slot[lanes[l]] = -1;
+            }
+            if(merged < count){
+                for(int q = 0; q < n; q++){
+                    owner[q] = remap[owner[q]];
+                }
+                count = merged;
+            }
+
+            // 1本になったら普通に読み進める
+            if(count == 1){
+                int state = lanes[0];
+                for(i++; i < to; i++){
+                    c = s.charAt(i);
+                    state = table[state * k + pages[c >>> 8][c & 0xFF]];
+                }
+                lanes[0] = state;
+            }
+        }
+        int[] map = new int[n];
+        for(int q = 0; q < n; q++){
+            map[q] = lanes[owner[q]];
+        }
+        return map;
+    }
+
+    private static int _split(int from, int to, IntPredicate newline){
+        // (from, to)の中で、直前が'\n'の位置のうち真ん中に最も近いもの (なければ-1)
+        // 真ん中から前後に1つずつ広げて探す
+        int mid = (from + to) >>> 1;
+        for(int d = 0; mid - d > from || mid + d < to; d++){
+            if(mid + d < to && mid + d > from && newline.test(mid + d - 1)){
+                return mid + d;
+            }
+            if(d > 0 && mid - d > from && newline.test(mid - d - 1)){
+                return mid - d;
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("serial")
+    private final class Transitions extends RecursiveTask<int[]> {
+        final CharSequence s;
+        final int from;
+        final int to;
+
+        Transitions(CharSequence s, int from, int to){
+            this.s = s;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected int[] compute(){
+            if(to - from <= chunk){
+                return run(s, from, to);
+            }
+            int mid = (from + to) >>> 1;
+            Transitions left = new Transitions(s, from, mid);
+            left.fork();
+            int[] right = new Transitions(s, mid, to).compute();
+            int[] map = left.join();
+
+            // 左の区間の後に右の区間を読んだときの対応
+            for(int q = 0; q < map.length; q++){
+                map[q] = right[map[q]];
+            }
+            return map;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class CharLines extends RecursiveTask<Long> {
+        final CharSequence s;
+        final int from;
+        final int to;
+
+        CharLines(CharSequence s, int from, int to){
+            this.s = s;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute(){
+            if(to - from > chunk){
+                // 真ん中に最も近い'\n'の直後で分ける
+                int mid = _split(from, to, i -> s.charAt(i) == '\n');
+                if(mid > 0){
+                    CharLines left = new CharLines(s, from, mid);
+                    left.fork();
+                    long right = new CharLines(s, mid, to).compute();
+                    return left.join() + right;
+                }
+                // 区間は'\n'で終わるかもしれない1行だけなので、すべての状態から読む区間に分けて並列に読む
+                int end = s.charAt(to - 1) == '\n' ? to - 1 : to;
+                int[] map = new Transitions(s, from, end).compute();
+                return dfa.accept[map[dfa.initial]] ? 1L : 0L;
+            }
+            StreamMatcher matcher = new StreamMatcher(dfa, (_, _, _) -> {});
+            matcher.feed(CharBuffer.wrap(s, from, to));
+            matcher.finish();
+            return matcher.matchedLines();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class ByteLines extends RecursiveTask<Long> {
+        final ByteBuffer buffer;
+        final int from;
+        final int to;
+
+        ByteLines(ByteBuffer buffer, int from, int to){
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute(){
+            if(to - from > chunk){
+                // UTF-8では'\n'のバイトは他の文字の一部にならないので、バイト単位で区切ってよい
+                // 1行だけの区間はUTF-8を読みながらすべての状態を進めることになるので、分けずに読む
+                int mid = _split(from, to, i -> buffer.get(i) == '\n');
+                if(mid > 0){
+                    ByteLines left = new ByteLines(buffer, from, mid);
+                    left.fork();
+                    long right = new ByteLines(buffer, mid, to).compute();
+                    return left.join() + right;
+                }
+            }
+            StreamMatcher matcher = new StreamMatcher(dfa, (_, _, _) -> {});
+            matcher.feed(buffer.slice(from, to - from));
+            matcher.finish();
+            return matcher.matchedLines();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package lib;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+public final class Pattern implements Matcher {
+    // コンパイル済みの正規表現
+    // 作った後は変更しないので、複数のスレッドで共有してよい
+    // 状態数がMAX_DFA_STATES(limits.maxDfaStates)に収まればDFAで、収まらなければ遅延DFAで照合する
+    // 遅延DFAは作った状態を次の照合でも使えるように、スレッドの数ほどを使い回す
+    // 遅延DFAのキャッシュが何度も溢れると、その照合の残りはNFAのシミュレーションで続け、
+    // 入力がたどる状態がキャッシュに収まらないパターンなので、以降の照合はPike VMでする
+    // 回数指定の繰り返しはunrollLimitまで展開し、それを超えると中身が文字か文字集合ならPike VMが回数を数える
+    // 回数を数えられない繰り返しはAST.Repeat.maxUnrolledSizeまで展開してDFAで照合する
+    // 照合の前に、一致する文字列が必ず持つ接頭辞・接尾辞・部分文字列があるかを調べ、なければすぐに不一致とする
+    //
+    // limitsで正規表現の長さ、NFAの大きさ、1回の照合の手間に上限をつけられ、超えるとResourceLimitExceptionを投げる
+    // 照合の手間は遅延DFAとPike VMで照合するときだけ数え、DFAで照合するときは数えない (手間は入力の長さに比例する)
+    //
+    // match(s, offsets)はグループの位置も求める
+    // キャプチャつきの命令列は最初に使うときに作り、one-passならその表で、そうでなければPike VMで照合する
+    // その命令数がNFAの大きさの上限を超えないかは、作らずに数えてコンパイルするときに調べる
+    // 回数指定の繰り返しはキャプチャを取るときも展開するので、AST.Repeat.maxUnrolledSizeを超えるとResourceLimitExceptionになる
+    public static final int MAX_DFA_STATES = 10000;
+    private static final int LAZY_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+    private final String pattern;
+    private final DFA dfa;
+    private final NFA nfa;
+    private final CharClasses classes;
+    private final Prog prog;
+    private final Prefilter prefilter;
+    private final Limits limits;
+    private final int unrollLimit;
+    private final int groups;
+    // 照合していない遅延DFA (遅延DFAで照合しないときはnull)
+    private final ArrayBlockingQueue<LazyDFA> lazies;
+    private volatile boolean thrashing;
+    private volatile Captures captures;
+
+    private record Captures(Prog prog, OnePass onePass) {
+        // キャプチャつきの命令列と、one-passならその表 (そうでなければnull)
+    }
+
+    private Pattern(String pattern, DFA dfa, NFA nfa, CharClasses classes, Prog prog, Literals literals, Limits limits,
+                    int unrollLimit, int groups){
+        this.pattern = pattern;
+        this.dfa = dfa;
+        this.nfa = nfa;
+        this.classes = classes;
+        this.prog = prog;
+        this.prefilter = new Prefilter(literals);
+        this.limits = limits;
+        this.unrollLimit = unrollLimit;
+        this.groups = groups;
+        this.lazies = nfa != null ? new ArrayBlockingQueue<>(LAZY_POOL_SIZE) : null;
+    }
+
+    public static Pattern compile(String pattern){
+        return compile(pattern, AST.Repeat.DEFAULT_UNROLL_LIMIT, Limits.DEFAULT);
+    }
+
+    public static Pattern compile(String pattern, int unrollLimit){
+        return compile(pattern, unrollLimit, Limits.DEFAULT);
+    }
+
+    public static Pattern compile(String pattern, Limits limits){
+        return compile(pattern, AST.Repeat.DEFAULT_UNROLL_LIMIT, limits);
+    }
+
+    public static Pattern compile(String pattern, int unrollLimit, Limits limits){
+        // 回数を数える繰り返しがあれば、Pike VMで照合する
+        if(pattern.length() > limits.maxPatternLength()){
+            throw new ResourceLimitException(ResourceLimitException.Kind.PATTERN_LENGTH, pattern.length(), limits.maxPatternLength());
+        }
+        AST parsed = AST.parse(pattern);
+        int groups = AST.Group.count(parsed);
+        if(groups > 0){
+            int size = Prog.size(parsed, unrollLimit, true);
+            if(size > limits.maxNfaNodes()){
+                throw new ResourceLimitException(ResourceLimitException.Kind.NFA_NODES, size, limits.maxNfaNodes());
+            }
+        }
+        AST ast = Optimizer.optimize(parsed);
+        Literals literals = Literals.of(ast);
+        if(AST.Repeat.unrollable(ast, unrollLimit)){
+            // 展開する繰り返しはAST.Repeat.maxUnrolledSizeで抑えているので、NFAの大きさは作ってから調べる
+            NFA nfa = NFA.fromAST(ast, unrollLimit);
+            if(nfa.size > limits.maxNfaNodes()){
+                throw new ResourceLimitException(ResourceLimitException.Kind.NFA_NODES, nfa.size, limits.maxNfaNodes());
+            }
+            CharClasses classes = CharClasses.fromAST(ast);
+            DFA dfa = DFA.fromNFA(nfa, classes, limits.maxDfaStates());
+            if(dfa != null){
+                dfa.minimize();
+                return new Pattern(pattern, dfa, null, null, null, literals, limits, unrollLimit, groups);
+            }
+            // BatchMatcherなどのためにPike VMの命令列も持っておく
+            nfa.index();
+            return new Pattern(pattern, null, nfa, classes, Prog.compile(ast, unrollLimit), literals, limits, unrollLimit, groups);
+        }
+        Prog prog = Prog.compile(ast, unrollLimit);
+        if(prog.size > limits.maxNfaNodes()){
+            throw new ResourceLimitException(ResourceLimitException.Kind.NFA_NODES, prog.size, limits.maxNfaNodes());
+        }
+        return new Pattern(pattern, null, null, null, prog, literals, limits, unrollLimit, groups);
+    }
+
+    public boolean match(CharSequence s){
+        return match(s, (long[]) null);
+    }
+
+    boolean match(CharSequence s, long[] counts){
+        // 照合し、countsがあれば、Pike VMでたどった命令の数をcounts[0]に、遅延DFAのキャッシュミスの数をcounts[1]に足す
+        if(!prefilter.mayMatch(s)){
+            return false;
+        }
+        if(dfa != null){
+            return dfa.match(s);
+        }
+        LazyDFA lazy = lazy();
+        if(lazy != null){
+            long misses = lazy.misses();
+            try {
+                return lazy.match(s);
+            } finally {
+                if(counts != null){
+                    counts[1] += lazy.misses() - misses;
+                }
+                release(lazy);
+            }
+        }
+        // Pike VMは作業領域を持つので呼び出しごとに作る
+        PikeVM vm = new PikeVM(prog);
+        vm.maxSteps = limits.maxSteps();
+        try {
+            return vm.match(s);
+        } finally {
+            if(counts != null){
+                counts[0] += vm.visited;
+            }
+        }
+    }
+
+    LazyDFA lazy(){
+        // 遅延DFAは同時に1つの照合でしか使えないので、空いているものを取り出し、なければ作る
+        // 遅延DFAで照合しないか、Pike VMに切り替えた後はnull
+        if(nfa == null || thrashing){
+            return null;
+        }
+        LazyDFA lazy = lazies.poll();
+        if(lazy == null){
+            lazy = LazyDFA.fromNFA(nfa, classes, limits.maxCacheBytes(), LazyDFA.DEFAULT_MAX_FLUSHES);
+            lazy.maxSteps = limits.maxSteps();
+        }
+        return lazy;
+    }
+
+    void release(LazyDFA lazy){
+        // lazy()で取り出した遅延DFAを戻す
+        // NFAのシミュレーションに切り替わっていれば、戻さずに以降の照合をPike VMにする
+        if(lazy.fallback()){
+            thrashing = true;
+            lazies.clear();
+        } else {
+            lazies.offer(lazy);
+        }
+    }
+
+    public boolean match(CharSequence s, int[] offsets){
+        // 入力全体が一致すれば、グループkの範囲をoffsets[2k]からoffsets[2k+1]に書いてtrueを返す
+        // グループ0は入力全体で、一致に加わらなかったグループは-1 (falseのときoffsetsの中身は決まらない)
+        // 位置はバックトラックで最初に見つかる一致のもの (左の選択肢、長い繰り返しが優先)
+        // ただし空文字列に一致しうるものの繰り返しでは、空の回を数えない
+        // offsetsは使い回せ、one-passの表で照合するときは確保しない
+        if(offsets.length < 2 * (groups + 1)){
+            throw new IllegalArgumentException(STR."Offsets need \{2 * (groups + 1)} slots but has \{offsets.length}");
+        }
+        // 一致しないものは速い方の照合で落とす
+        if(!prefilter.mayMatch(s) || (dfa != null && !dfa.match(s))){
+            return false;
+        }
+        if(groups == 0){
+            if(dfa == null && !match(s)){
+                return false;
+            }
+            offsets[0] = 0;
+            offsets[1] = s.length();
+            return true;
+        }
+        Captures c = _captures();
+        if(c.onePass != null){
+            return c.onePass.match(s, offsets);
+        }
+        PikeVM vm = new PikeVM(c.prog);
+        vm.maxSteps = limits.maxSteps();
+        return vm.match(s, offsets);
+    }
+
+    private Captures _captures(){
+        // 同時に呼ばれると複数回作ることがあるが、どれも同じものなので構わない
+        Captures c = captures;
+        if(c == null){
+            // 命令数はコンパイルするときに上限と比べてある
+            Prog prog = Prog.compile(AST.parse(pattern), unrollLimit, true);
+            c = new Captures(prog, OnePass.of(prog));
+            captures = c;
+        }
+        return c;
+    }
+
+    public int groupCount(){
+        // グループの数 (グループ0は数えない)
+        return groups;
+    }
+
+    DFA dfa(){
+        return dfa;
+    }
+
+    Prog prog(){
+        return prog;
+    }
+
+    Prefilter prefilter(){
+        return prefilter;
+    }
+
+    public Limits limits(){
+        return limits;
+    }
+
+    public Literals literals(){
+        return prefilter.literals;
+    }
+
+    public String pattern(){
+        return pattern;
+    }
+
+    public String toString(){
+        return pattern;
+    }
+}
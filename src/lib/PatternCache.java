@@ -0,0 +1,100 @@
+package lib;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class PatternCache {
+    // パターン文字列をキーにしたPatternの上限つきキャッシュ
+    // 同じパターンを複数のスレッドが同時に求めても、コンパイルするのは最初の1スレッドだけで、残りはその結果を待つ
+    // 上限を超えたら最も長く使われていないものを捨てる (LRU)
+    // 捨てるものを探すのは新しくコンパイルしたときだけなので、全体をなめてもコンパイルに比べれば軽い
+    // limitsを渡すと、すべてのパターンをその上限でコンパイルする
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final class Entry {
+        final FutureTask<Pattern> task;
+        volatile long used;
+
+        Entry(FutureTask<Pattern> task){
+            this.task = task;
+        }
+    }
+
+    private final int capacity;
+    private final Limits limits;
+    private final ConcurrentHashMap<String, Entry> entries;
+    private final AtomicLong clock;
+
+    public PatternCache(){
+        this(DEFAULT_CAPACITY);
+    }
+
+    public PatternCache(int capacity){
+        this(capacity, Limits.DEFAULT);
+    }
+
+    public PatternCache(int capacity, Limits limits){
+        this.capacity = Math.max(1, capacity);
+        this.limits = limits;
+        this.entries = new ConcurrentHashMap<>();
+        this.clock = new AtomicLong();
+    }
+
+    public Pattern get(String pattern){
+        Entry entry = entries.get(pattern);
+        if(entry == null){
+            Entry created = new Entry(new FutureTask<>(() -> Pattern.compile(pattern, limits)));
+            created.used = clock.incrementAndGet();
+            entry = entries.putIfAbsent(pattern, created);
+            if(entry == null){
+                // 自分が登録したのでコンパイルする
+                entry = created;
+                entry.task.run();
+                _evict();
+            }
+        }
+        entry.used = clock.incrementAndGet();
+        try {
+            return entry.task.get();
+        } catch (ExecutionException e) {
+            // コンパイルに失敗したものは残さない
+            entries.remove(pattern, entry);
+            if(e.getCause() instanceof RuntimeException cause){
+                throw cause;
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void _evict(){
+        while(entries.size() > capacity){
+            String oldest = null;
+            long used = Long.MAX_VALUE;
+            for(Map.Entry<String, Entry> e : entries.entrySet()){
+                // コンパイル中のものは待っているスレッドがいるので捨てない
+                if(e.getValue().task.isDone() && e.getValue().used < used){
+                    oldest = e.getKey();
+                    used = e.getValue().used;
+                }
+            }
+            if(oldest == null){
+                return;
+            }
+            entries.remove(oldest);
+        }
+    }
+
+    public int size(){
+        return entries.size();
+    }
+
+    public void clear(){
+        entries.clear();
+    }
+}
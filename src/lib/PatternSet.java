@@ -0,0 +1,204 @@
+package lib;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+
+public final class PatternSet {
+    // 複数の正規表現を1つのDFAにまとめたもの
+    // 入力を1回走査するだけで、一致したすべての正規表現の番号(渡した順の添字)が分かる
+    // 受理状態には、そこで受理される正規表現の番号を昇順に並べたものを持たせる
+    // DFAは受理する番号の並びが同じ状態をまとめて最小化する
+    //
+    // 状態数がlimits.maxDfaStatesを超えるときは (.*foo.* のような正規表現を多く集めると指数的に増える)、
+    // まとめたNFAの遅延DFAで照合し、最後の状態集合に含まれる各正規表現の終了状態から番号を求める
+    // 遅延DFAは同時に1つの照合でしか使えないので、Patternと同じくスレッドの数ほどを使い回す
+    private static final int[] NONE = new int[0];
+    private static final int LAZY_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+    final CharClasses classes;
+    final int classCount;
+    final int size;
+    // DFAで照合するとき
+    final int[] table;
+    final int[][] matches;
+    final int initial;
+    // 遅延DFAで照合するとき (DFAで照合するときはnull)
+    private final NFA nfa;
+    private final int[] ends;
+    private final Limits limits;
+    private final ArrayBlockingQueue<LazyDFA> lazies;
+
+    private PatternSet(CharClasses classes, int[] table, int[][] matches, int initial, int size){
+        this.classes = classes;
+        this.classCount = classes.count;
+        this.table = table;
+        this.matches = matches;
+        this.initial = initial;
+        this.size = size;
+        this.nfa = null;
+        this.ends = null;
+        this.limits = null;
+        this.lazies = null;
+    }
+
+    private PatternSet(CharClasses classes, NFA nfa, int[] ends, Limits limits){
+        this.classes = classes;
+        this.classCount = classes.count;
+        this.table = null;
+        this.matches = null;
+        this.initial = DFA.INITIAL;
+        this.size = ends.length;
+        this.nfa = nfa;
+        this.ends = ends;
+        this.limits = limits;
+        this.lazies = new ArrayBlockingQueue<>(LAZY_POOL_SIZE);
+    }
+
+    public static PatternSet fromAST(List<AST> asts){
+        return fromAST(asts, Limits.DEFAULT);
+    }
+
+    public static PatternSet fromAST(List<AST> asts, Limits limits){
+        // それぞれのNFAを新しい開始状態からのε遷移でまとめ、部分集合構成法でDFAにする
+        asts = asts.stream().map(Optimizer::optimize).toList();
+        List<NFA> nfas = new ArrayList<>();
+        for(AST ast : asts){
+            nfas.add(NFA.fromAST(ast));
+        }
+        int[] ends = new int[nfas.size()];
+        NFA nfa = NFA.unionOf(nfas, ends);
+        if(nfa.size > limits.maxNfaNodes()){
+            throw new ResourceLimitException(ResourceLimitException.Kind.NFA_NODES, nfa.size, limits.maxNfaNodes());
+        }
+        CharClasses classes = CharClasses.fromAST(asts);
+
+        List<BitSet> sets = new ArrayList<>();
+        int[] table = DFA.determinize(nfa, classes, sets, limits.maxDfaStates());
+        if(table == null){
+            return new PatternSet(classes, nfa, ends, limits);
+        }
+
+        // 各状態の集合に含まれる終了状態から、受理される正規表現の番号を求める
+        // 同じ番号の並びには同じラベルをつけ、ラベルごとに分けて最小化する
+        int[] patternOf = new int[nfa.size];
+        Arrays.fill(patternOf, -1);
+        for(int i = 0; i < nfas.size(); i++){
+            patternOf[ends[i]] = i;
+        }
+        HashMap<List<Integer>, Integer> labels = new HashMap<>();
+        List<int[]> labelMatches = new ArrayList<>();
+        int[] label = new int[sets.size()];
+        for(int s = 0; s < sets.size(); s++){
+            BitSet set = sets.get(s);
+            List<Integer> ids = new ArrayList<>();
+            for(int n = set.nextSetBit(0); n >= 0; n = set.nextSetBit(n + 1)){
+                if(patternOf[n] >= 0){
+                    ids.add(patternOf[n]);
+                }
+            }
+            Collections.sort(ids);
+            Integer l = labels.get(ids);
+            if(l == null){
+                l = labelMatches.size();
+                labels.put(ids, l);
+                labelMatches.add(ids.isEmpty() ? NONE : ids.stream().mapToInt(Integer::intValue).toArray());
+            }
+            label[s] = l;
+        }
+
+        int k = classes.count;
+        int[] renumber = DFA.partition(table, k, label, labelMatches.size());
+        int states = 0;
+        for(int t : renumber){
+            states = Math.max(states, t + 1);
+        }
+        int[] minimized = new int[states * k];
+        int[][] matches = new int[states][];
+        for(int s = 0; s < sets.size(); s++){
+            int t = renumber[s];
+            for(int c = 0; c < k; c++){
+                minimized[t * k + c] = renumber[table[s * k + c]];
+            }
+            matches[t] = labelMatches.get(label[s]);
+        }
+        return new PatternSet(classes, minimized, matches, renumber[DFA.INITIAL], asts.size());
+    }
+
+    public static PatternSet parse(List<String> patterns){
+        return parse(patterns, Limits.DEFAULT);
+    }
+
+    public static PatternSet parse(List<String> patterns, Limits limits){
+        List<AST> asts = new ArrayList<>();
+        for(String pattern : patterns){
+            asts.add(AST.parse(pattern));
+        }
+        return fromAST(asts, limits);
+    }
+
+    private int[] _match(CharSequence s){
+        // 入力全体に一致する正規表現の番号 (DFAのときは共有している配列なので書き換えない)
+        if(table == null){
+            return _matchLazy(s);
+        }
+        char[][] pages = classes.pages;
+        int state = initial;
+        for(int i = 0; i < s.length() && state != DFA.DEAD; i++){
+            char c = s.charAt(i);
+            state = table[state * classCount + pages[c >>> 8][c & 0xFF]];
+        }
+        return matches[state];
+    }
+
+    private int[] _matchLazy(CharSequence s){
+        LazyDFA lazy = lazies.poll();
+        if(lazy == null){
+            lazy = LazyDFA.fromNFA(nfa, classes, limits.maxCacheBytes(), LazyDFA.DEFAULT_MAX_FLUSHES);
+            lazy.maxSteps = limits.maxSteps();
+        }
+        try {
+            int state = lazy.run(s);
+            BitSet set = state >= 0 ? lazy.set(state) : null;
+            int[] ids = new int[ends.length];
+            int count = 0;
+            for(int i = 0; i < ends.length; i++){
+                if(set != null ? set.get(ends[i]) : lazy.nfaStates.contains(ends[i])){
+                    ids[count++] = i;
+                }
+            }
+            return count == 0 ? NONE : Arrays.copyOf(ids, count);
+        } finally {
+            lazies.offer(lazy);
+        }
+    }
+
+    public int[] matchAll(CharSequence s){
+        // 入力全体に一致する正規表現の番号をすべて昇順で返す
+        int[] ids = _match(s);
+        return ids.length == 0 || table == null ? ids : ids.clone();
+    }
+
+    public int matchFirst(CharSequence s){
+        // 入力全体に一致する正規表現のうち番号が最も小さいもの (なければ-1)
+        int[] ids = _match(s);
+        return ids.length == 0 ? -1 : ids[0];
+    }
+
+    public boolean matchAny(CharSequence s){
+        return _match(s).length > 0;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean lazy(){
+        // 状態数が上限を超え、遅延DFAで照合するか
+        return table == null;
+    }
+
+    public int stateCount(){
+        // DFAの状態数 (遅延DFAで照合するときは0)
+        return table == null ? 0 : matches.length;
+    }
+}
@@ -0,0 +1,89 @@
+package lib;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public final class PatternStats {
+    // 1つのパターンの照合の統計
+    // 複数のスレッドから同時に記録してよい
+    // 例外で終わった照合も回数・文字数・時間などに数え、failuresにも数える
+    private final String name;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder matches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder chars = new LongAdder();
+    private final LongAdder states = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final Histogram nanos = new Histogram();
+
+    PatternStats(String name){
+        this.name = name;
+    }
+
+    void record(int length, boolean matched, boolean failed, long nanos, long states, long cacheMisses){
+        calls.increment();
+        if(matched){
+            matches.increment();
+        }
+        if(failed){
+            failures.increment();
+        }
+        chars.add(length);
+        if(states != 0){
+            this.states.add(states);
+        }
+        if(cacheMisses != 0){
+            this.cacheMisses.add(cacheMisses);
+        }
+        totalNanos.add(nanos);
+        this.nanos.record(nanos);
+    }
+
+    public String name(){
+        return name;
+    }
+
+    public long calls(){
+        // 照合した回数
+        return calls.sum();
+    }
+
+    public long matches(){
+        // 一致した回数
+        return matches.sum();
+    }
+
+    public long failures(){
+        // 例外で終わった回数
+        return failures.sum();
+    }
+
+    public long chars(){
+        // 照合した入力の文字数の合計
+        return chars.sum();
+    }
+
+    public long states(){
+        // NFAのシミュレーション(Pike VM)でたどった状態の数の合計
+        return states.sum();
+    }
+
+    public long cacheMisses(){
+        // 遅延DFAのキャッシュにない遷移を求めた回数の合計
+        return cacheMisses.sum();
+    }
+
+    public long totalNanos(){
+        // 照合にかかった時間(ナノ秒)の合計
+        return totalNanos.sum();
+    }
+
+    public Histogram nanos(){
+        // 1回の照合にかかった時間(ナノ秒)の分布
+        return nanos;
+    }
+
+    public String toString(){
+        return STR."\{name}: calls=\{calls()} matches=\{matches()} failures=\{failures()} chars=\{chars()} states=\{states()} cacheMisses=\{cacheMisses()} p50=\{nanos.valueAtPercentile(50)}ns p99=\{nanos.valueAtPercentile(99)}ns max=\{nanos.max()}ns";
+    }
+}
@@ -0,0 +1,324 @@
+package lib;
+
+import java.util.Arrays;
+
+public final class PikeVM implements Matcher {
+    // Progを実行するPike VM
+    // 現在と次のスレッド集合をSparseSetで持ち回すので、入力1文字ごとの確保はない
+    // 作業領域を持つのでスレッドセーフではない
+    //
+    // REPEAT命令は、その命令にいるスレッドが読んだ回数の集合 (CountingSet) を命令ごとに1つ持つ
+    // 同じ命令にいるスレッドは同じ文字を読むので、回数は揃って1ずつ増え、文字集合にない文字で揃って消える
+    // そこで回数そのものではなく「繰り返しに入った位置」を覚え、回数は今の位置との差で求める
+    // 連続する位置はまとめて1つの区間にするので、記憶は上限の回数によらずたいてい数個の区間で済む
+    //
+    // キャプチャつきのProgでは、match(s, offsets)でグループの位置も求める
+    // スレッドごとのスロットは命令番号で引く配列に持ち、スレッド集合は優先度の高い順(左の選択肢、繰り返しを続ける方が先)に並べる
+    // 同じ命令に後から着いたスレッドは捨てるので、バックトラックで最初に見つかる一致と同じ位置になる
+    final Prog prog;
+    private SparseSet current;
+    private SparseSet next;
+    private final int[] stack;
+    private CountingSet[] currentCounts;
+    private CountingSet[] nextCounts;
+
+    // キャプチャ用 (スレッドpcのスロットはcaps[pc * slots]から、scratchはたどっている途中のスレッドのスロット)
+    private int[] currentCaps;
+    private int[] nextCaps;
+    private final int[] scratch;
+    private final int[] capStack;
+
+    // これまでにスレッド集合へ加えた命令の数 (計測用)
+    long visited;
+    // 1回の照合でたどる命令の延べ数の上限 (超えたらResourceLimitException)
+    long maxSteps = Long.MAX_VALUE;
+
+    public PikeVM(Prog prog){
+        this.prog = prog;
+        current = new SparseSet(prog.size);
+        next = new SparseSet(prog.size);
+        stack = new int[prog.size];
+        currentCounts = new CountingSet[prog.repeats.length];
+        nextCounts = new CountingSet[prog.repeats.length];
+        for(int r = 0; r < prog.repeats.length; r++){
+            currentCounts[r] = new CountingSet();
+            nextCounts[r] = new CountingSet();
+        }
+        scratch = new int[prog.slots];
+        if(prog.slots > 0){
+            currentCaps = new int[prog.size * prog.slots];
+            nextCaps = new int[prog.size * prog.slots];
+            // 1つの命令をたどるごとに積むのは高々3つ (分岐先2つか、SAVEの戻す値2つと次の命令)
+            capStack = new int[4 * prog.size + 1];
+        } else {
+            capStack = null;
+        }
+    }
+
+    private static final class CountingSet {
+        // 繰り返しに入った位置の集合を、昇順で重ならない区間[runs[2k], runs[2k+1]]の列として持つ (リングバッファ)
+        int[] runs = new int[8];
+        int head;
+        int count;
+
+        void clear(){
+            head = 0;
+            count = 0;
+        }
+
+        boolean isEmpty(){
+            return count == 0;
+        }
+
+        void enter(int position, boolean unbounded){
+            // positionで繰り返しに入る
+            // 上限がなければ最も古い位置だけを覚えておけば足りる
+            if(count > 0){
+                int last = (head + count - 1) % (runs.length / 2);
+                if(unbounded || runs[2 * last + 1] == position){
+                    return;
+                }
+                if(runs[2 * last + 1] == position - 1){
+                    runs[2 * last + 1] = position;
+                    return;
+                }
+            }
+            if(count == runs.length / 2){
+                int[] grown = new int[runs.length * 2];
+                for(int k = 0; k < count; k++){
+                    int from = (head + k) % count;
+                    grown[2 * k] = runs[2 * from];
+                    grown[2 * k + 1] = runs[2 * from + 1];
+                }
+                runs = grown;
+                head = 0;
+            }
+            int tail = (head + count) % (runs.length / 2);
+            runs[2 * tail] = position;
+            runs[2 * tail + 1] = position;
+            count++;
+        }
+
+        void expire(int oldest){
+            // oldestより前に入った位置を捨てる
+            while(count > 0 && runs[2 * head + 1] < oldest){
+                head = (head + 1) % (runs.length / 2);
+                count--;
+            }
+            if(count > 0 && runs[2 * head] < oldest){
+                runs[2 * head] = oldest;
+            }
+        }
+
+        int oldest(){
+            return runs[2 * head];
+        }
+    }
+
+    public static PikeVM fromAST(AST ast){
+        return new PikeVM(Prog.compile(Optimizer.optimize(ast)));
+    }
+
+    private void _addThread(SparseSet set, CountingSet[] counts, int pc, int position){
+        // pcからSPLITとJMPをたどって到達できる命令をすべてsetに加える
+        // たどり着いたREPEAT命令には、positionで繰り返しに入ったことを記録する
+        int before = set.size;
+        int top = _push(set, counts, pc, position, 0);
+        while(top > 0){
+            pc = stack[--top];
+            switch (prog.op[pc]) {
+                case Prog.JMP -> top = _push(set, counts, prog.x[pc], position, top);
+                case Prog.SAVE -> top = _push(set, counts, pc + 1, position, top);
+                case Prog.SPLIT -> {
+                    top = _push(set, counts, prog.y[pc], position, top);
+                    top = _push(set, counts, prog.x[pc], position, top);
+                }
+                case Prog.REPEAT -> {
+                    // 0回でよければそのまま抜けられる
+                    if(prog.repeats[prog.y[pc]][0] == 0){
+                        top = _push(set, counts, pc + 1, position, top);
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        visited += set.size - before;
+    }
+
+    private int _push(SparseSet set, CountingSet[] counts, int pc, int position, int top){
+        if(prog.op[pc] == Prog.REPEAT){
+            counts[prog.y[pc]].enter(position, prog.repeats[prog.y[pc]][1] < 0);
+        }
+        if(!set.contains(pc)){
+            set.add(pc);
+            stack[top++] = pc;
+        }
+        return top;
+    }
+
+    public boolean match(CharSequence s){
+        current.clear();
+        for(CountingSet counts : currentCounts){
+            counts.clear();
+        }
+        _addThread(current, currentCounts, 0, 0);
+        long steps = 0;
+        for(int i = 0; i < s.length() && current.size > 0; i++){
+            if((steps += current.size) > maxSteps){
+                throw new ResourceLimitException(ResourceLimitException.Kind.STEPS, steps, maxSteps);
+            }
+            char c = s.charAt(i);
+            next.clear();
+            for(CountingSet counts : nextCounts){
+                counts.clear();
+            }
+            if(prog.repeats.length > 0){
+                _carry(c, i + 1);
+            }
+            for(int j = 0; j < current.size; j++){
+                int pc = current.dense[j];
+                switch (prog.op[pc]) {
+                    case Prog.CHAR -> {
+                        if(prog.ch[pc] == c){
+                            _addThread(next, nextCounts, pc + 1, i + 1);
+                        }
+                    }
+                    case Prog.SET -> {
+                        if(AST.CharSet.contains(prog.sets[prog.x[pc]], c)){
+                            _addThread(next, nextCounts, pc + 1, i + 1);
+                        }
+                    }
+                    case Prog.REPEAT -> {
+                        // 読んだ回数がmin以上のものがあれば抜けられる
+                        CountingSet counts = nextCounts[prog.y[pc]];
+                        if(next.contains(pc) && !counts.isEmpty() && counts.oldest() <= i + 1 - prog.repeats[prog.y[pc]][0]){
+                            _addThread(next, nextCounts, pc + 1, i + 1);
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+            SparseSet t = current;
+            current = next;
+            next = t;
+            CountingSet[] counts = currentCounts;
+            currentCounts = nextCounts;
+            nextCounts = counts;
+        }
+        for(int j = 0; j < current.size; j++){
+            if(prog.op[current.dense[j]] == Prog.MATCH){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean match(CharSequence s, int[] offsets){
+        // 入力全体が一致すれば、グループkの範囲をoffsets[2k]からoffsets[2k+1]に書いてtrueを返す
+        // 一致に加わらなかったグループは-1 (falseのときoffsetsの中身は決まらない)
+        int slots = prog.slots;
+        if(slots == 0){
+            throw new IllegalStateException("Program has no capture slots");
+        }
+        if(offsets.length < slots){
+            throw new IllegalArgumentException(STR."Offsets need \{slots} slots but has \{offsets.length}");
+        }
+        current.clear();
+        Arrays.fill(scratch, -1);
+        _addCaptures(current, currentCaps, 0, 0);
+        long steps = 0;
+        for(int i = 0; i < s.length() && current.size > 0; i++){
+            if((steps += current.size) > maxSteps){
+                throw new ResourceLimitException(ResourceLimitException.Kind.STEPS, steps, maxSteps);
+            }
+            char c = s.charAt(i);
+            next.clear();
+            for(int j = 0; j < current.size; j++){
+                int pc = current.dense[j];
+                boolean matched = switch (prog.op[pc]) {
+                    case Prog.CHAR -> prog.ch[pc] == c;
+                    case Prog.SET -> AST.CharSet.contains(prog.sets[prog.x[pc]], c);
+                    default -> false;
+                };
+                if(matched){
+                    System.arraycopy(currentCaps, pc * slots, scratch, 0, slots);
+                    _addCaptures(next, nextCaps, pc + 1, i + 1);
+                }
+            }
+            SparseSet t = current;
+            current = next;
+            next = t;
+            int[] caps = currentCaps;
+            currentCaps = nextCaps;
+            nextCaps = caps;
+        }
+        // 優先度の最も高い受理を選ぶ (MATCH命令は1つなので、あればそれ)
+        for(int j = 0; j < current.size; j++){
+            int pc = current.dense[j];
+            if(prog.op[pc] == Prog.MATCH){
+                System.arraycopy(currentCaps, pc * slots, offsets, 0, slots);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void _addCaptures(SparseSet set, int[] caps, int pc, int position){
+        // scratchのスロットを持つスレッドをpcから深さ優先でたどり、着いた命令を優先度順にsetに加える
+        // SAVEで書き換えたスロットは、その先をたどり終えたら戻す (負の要素 ~slot とその前の要素が戻す値)
+        int before = set.size;
+        int slots = prog.slots;
+        int top = 0;
+        capStack[top++] = pc;
+        while(top > 0){
+            int e = capStack[--top];
+            if(e < 0){
+                scratch[~e] = capStack[--top];
+                continue;
+            }
+            if(set.contains(e)){
+                continue;
+            }
+            set.add(e);
+            switch (prog.op[e]) {
+                case Prog.JMP -> capStack[top++] = prog.x[e];
+                case Prog.SPLIT -> {
+                    capStack[top++] = prog.y[e];
+                    capStack[top++] = prog.x[e];
+                }
+                case Prog.SAVE -> {
+                    int slot = prog.x[e];
+                    capStack[top++] = scratch[slot];
+                    capStack[top++] = ~slot;
+                    scratch[slot] = position;
+                    capStack[top++] = e + 1;
+                }
+                default -> System.arraycopy(scratch, 0, caps, e * slots, slots);
+            }
+        }
+        visited += set.size - before;
+    }
+
+    private void _carry(char c, int position){
+        // REPEAT命令で文字cを読み、回数がmaxを超えなかったものを次のスレッド集合へ持ち越す
+        // 繰り返しに新しく入るスレッドより先に持ち越して、区間の列を昇順に保つ
+        for(int j = 0; j < current.size; j++){
+            int pc = current.dense[j];
+            if(prog.op[pc] != Prog.REPEAT || !AST.CharSet.contains(prog.sets[prog.x[pc]], c)){
+                continue;
+            }
+            int r = prog.y[pc];
+            CountingSet counts = currentCounts[r];
+            currentCounts[r] = nextCounts[r];
+            nextCounts[r] = counts;
+            if(prog.repeats[r][1] >= 0){
+                counts.expire(position - prog.repeats[r][1]);
+            }
+            if(!counts.isEmpty()){
+                next.add(pc);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package lib;
+
+import java.util.Arrays;
+
+final class Prefilter {
+    // オートマトンを走らせる前に、一致に必ず必要な文字列が入力にあるかを調べる
+    // Stringならintrinsic化されたString.indexOf(ベクトル命令で比較される)を、
+    // それ以外のCharSequenceならBoyer-Moore-Horspool法を使う
+    final Literals literals;
+    final String required;
+    private final int[] shift;
+
+    Prefilter(Literals literals){
+        this.literals = literals;
+        this.required = literals.required();
+
+        // 文字の下位8ビットごとのずらし幅
+        // 下位8ビットが同じ文字は小さい方のずらし幅を共有するので、ずらしすぎることはない
+        int m = required.length();
+        shift = new int[256];
+        Arrays.fill(shift, Math.max(1, m));
+        for(int i = 0; i < m - 1; i++){
+            shift[required.charAt(i) & 0xFF] = m - 1 - i;
+        }
+    }
+
+    boolean isEmpty(){
+        return required.isEmpty();
+    }
+
+    int indexOf(CharSequence s, int from){
+        // s[from..]でrequiredが最初に現れる位置 (なければ-1)
+        return indexOf(s, required, shift, from);
+    }
+
+    private static int indexOf(CharSequence s, String literal, int[] shift, int from){
+        if(s instanceof String string){
+            return string.indexOf(literal, from);
+        }
+        int m = literal.length();
+        if(m == 0){
+            return from <= s.length() ? from : -1;
+        }
+        char last = literal.charAt(m - 1);
+        for(int i = from + m - 1; i < s.length(); ){
+            char c = s.charAt(i);
+            if(c == last){
+                int j = m - 2;
+                while(j >= 0 && s.charAt(i - (m - 1 - j)) == literal.charAt(j)){
+                    j--;
+                }
+                if(j < 0){
+                    return i - m + 1;
+                }
+            }
+            i += shift[c & 0xFF];
+        }
+        return -1;
+    }
+
+    boolean mayMatch(CharSequence s){
+        // 入力全体が一致しうるか (falseなら一致しない)
+        if(literals.exact() != null){
+            return literals.exact().contentEquals(s);
+        }
+        String prefix = literals.prefix();
+        String suffix = literals.suffix();
+        if(s.length() < Math.max(prefix.length(), suffix.length())){
+            return false;
+        }
+        for(int i = 0; i < prefix.length(); i++){
+            if(s.charAt(i) != prefix.charAt(i)){
+                return false;
+            }
+        }
+        for(int i = 0; i < suffix.length(); i++){
+            if(s.charAt(s.length() - suffix.length() + i) != suffix.charAt(i)){
+                return false;
+            }
+        }
+        return required.length() <= Math.max(prefix.length(), suffix.length()) || indexOf(s, 0) >= 0;
+    }
+}
@@ -0,0 +1,323 @@
+package lib;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public final class Prog {
+    // NFAを命令列にしたもの
+    // CHAR: 文字chに一致したらpc+1へ進む
+    // SET: 文字集合sets[x]に含まれる文字ならpc+1へ進む
+    // SPLIT: xとyの両方へ分岐する
+    // JMP: xへ移る
+    // MATCH: 受理
+    // REPEAT: 文字集合sets[x]の文字をrepeats[y][0]回以上repeats[y][1]回以下 (-1なら上限なし) 読んでからpc+1へ進む
+    //         回数は命令を展開せずにPike VMが数える
+    // SAVE: 今の位置をキャプチャのスロットxに記録してpc+1へ進む (キャプチャを取らないときはJMPと同じ)
+    //       グループkの始まりはスロット2k、終わりは2k+1 (グループ0は一致全体)
+    static final int CHAR = 0;
+    static final int SPLIT = 1;
+    static final int JMP = 2;
+    static final int MATCH = 3;
+    static final int SET = 4;
+    static final int REPEAT = 5;
+    static final int SAVE = 6;
+
+    int[] op;
+    char[] ch;
+    int[] x;
+    int[] y;
+    char[][] sets;
+    int[][] repeats;
+    int size;
+    private int setCount;
+    // キャプチャのスロットの数 (キャプチャを取らないときは0)
+    int slots;
+    private final int unrollLimit;
+    private final boolean captures;
+
+    private Prog(int unrollLimit, boolean captures){
+        this.unrollLimit = unrollLimit;
+        this.captures = captures;
+        op = new int[16];
+        ch = new char[16];
+        x = new int[16];
+        y = new int[16];
+        sets = new char[0][];
+        repeats = new int[0][];
+        size = 0;
+    }
+
+    public static Prog compile(AST ast){
+        return compile(ast, AST.Repeat.DEFAULT_UNROLL_LIMIT);
+    }
+
+    public static Prog compile(AST ast, int unrollLimit){
+        return compile(ast, unrollLimit, false);
+    }
+
+    public static Prog compile(AST ast, int unrollLimit, boolean captures){
+        // 回数指定の繰り返しは、展開後の大きさがunrollLimit以下なら展開する
+        // 超える場合、中身が文字か文字集合ならREPEAT命令にし、そうでなければAST.Repeat.maxUnrolledSizeまで展開する
+        // capturesならグループの前後にSAVE命令を置く
+        // このときREPEAT命令は使わず展開する (同じ命令に合流したスレッドのキャプチャを区別できないため)
+        // グループを残すため、astは最適化する前のものを渡す
+        Prog prog = new Prog(unrollLimit, captures);
+        if(captures){
+            prog.slots = 2 * (AST.Group.count(ast) + 1);
+            prog._emit(SAVE, '\0', 0, 0);
+        }
+        prog._compile(ast);
+        if(captures){
+            prog._emit(SAVE, '\0', 1, 0);
+        }
+        prog._emit(MATCH, '\0', 0, 0);
+        prog.op = Arrays.copyOf(prog.op, prog.size);
+        prog.ch = Arrays.copyOf(prog.ch, prog.size);
+        prog.x = Arrays.copyOf(prog.x, prog.size);
+        prog.y = Arrays.copyOf(prog.y, prog.size);
+        prog.sets = Arrays.copyOf(prog.sets, prog.setCount);
+        return prog;
+    }
+
+    static int size(AST ast, int unrollLimit, boolean captures){
+        // compile(ast, unrollLimit, captures)で作る命令列の命令数 (作らずに数え、intに収まらなければInteger.MAX_VALUE)
+        // 命令数は子の命令数の一次式なので、各ノードが足す命令数に、祖先の繰り返しの回数を掛けて足し合わせる
+        // 展開する繰り返し t{m,n} は tをn回と、上限があればSPLITをn-m回、なければ t* のSPLITとJMPを足す
+        long size = captures ? 3 : 1;
+        ArrayDeque<AST> stack = new ArrayDeque<>();
+        ArrayDeque<Long> weights = new ArrayDeque<>();
+        stack.push(ast);
+        weights.push(1L);
+        while(!stack.isEmpty()){
+            AST t = stack.pop();
+            long weight = weights.pop();
+            long own = switch (t) {
+                case AST.Char _, AST.CharSet _ -> 1;
+                case AST.Union<?, ?> u -> {
+                    _push(stack, weights, u.t1, weight);
+                    _push(stack, weights, u.t2, weight);
+                    yield 2;
+                }
+                case AST.Concat<?, ?> c -> {
+                    _push(stack, weights, c.t1, weight);
+                    _push(stack, weights, c.t2, weight);
+                    yield 0;
+                }
+                case AST.Star<?> r -> {
+                    _push(stack, weights, r.t, weight);
+                    yield 2;
+                }
+                case AST.Plus<?> r -> {
+                    _push(stack, weights, r.t, weight);
+                    yield 1;
+                }
+                case AST.Optional<?> r -> {
+                    _push(stack, weights, r.t, weight);
+                    yield 1;
+                }
+                case AST.Repeat<?> r -> {
+                    if(r.counted(unrollLimit) && !captures){
+                        yield 1;
+                    }
+                    boolean unbounded = r.max == AST.Repeat.UNBOUNDED;
+                    _push(stack, weights, r.t, _times(weight, unbounded ? r.min + 1 : r.max));
+                    yield unbounded ? 2 : r.max - r.min;
+                }
+                case AST.Group<?> g -> {
+                    _push(stack, weights, g.t, weight);
+                    yield captures && g.index != 0 ? 2 : 0;
+                }
+            };
+            size = Math.min(Long.MAX_VALUE / 2, size + _times(weight, own));
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    private static void _push(ArrayDeque<AST> stack, ArrayDeque<Long> weights, AST ast, long weight){
+        if(weight > 0){
+            stack.push(ast);
+            weights.push(weight);
+        }
+    }
+
+    private static long _times(long a, long b){
+        // 溢れないように抑えた積
+        return b != 0 && a > Long.MAX_VALUE / 2 / b ? Long.MAX_VALUE / 2 : a * b;
+    }
+
+    private int _emit(int op, char ch, int x, int y){
+        // 命令を末尾に追加し、そのpcを返す
+        if(size == this.op.length){
+            this.op = Arrays.copyOf(this.op, size * 2);
+            this.ch = Arrays.copyOf(this.ch, size * 2);
+            this.x = Arrays.copyOf(this.x, size * 2);
+            this.y = Arrays.copyOf(this.y, size * 2);
+        }
+        this.op[size] = op;
+        this.ch[size] = ch;
+        this.x[size] = x;
+        this.y[size] = y;
+        return size++;
+    }
+
+    private void _compile(AST ast){
+        // 「astの命令を末尾に追加する」と「その後で命令を足したり飛び先を埋めたりする」という仕事をスタックで処理する
+        // 後でする仕事は先に積むので、積んだ逆の順に実行される
+        // 再帰しないので、長い連結や深い入れ子でもスタックがあふれない
+        ArrayDeque<Runnable> work = new ArrayDeque<>();
+        _push(work, ast);
+        while(!work.isEmpty()){
+            work.pop().run();
+        }
+    }
+
+    private void _push(ArrayDeque<Runnable> work, AST ast){
+        work.push(() -> _compile(ast, work));
+    }
+
+    private void _compile(AST ast, ArrayDeque<Runnable> work){
+        switch (ast) {
+            case AST.Char c -> _emit(CHAR, c.c, 0, 0);
+            case AST.CharSet t -> _emit(SET, '\0', _set(t.ranges), 0);
+            case AST.Union<?, ?> t -> {
+                //     SPLIT L1, L2
+                // L1: t1
+                //     JMP L3
+                // L2: t2
+                // L3:
+                int split = _emit(SPLIT, '\0', 0, 0);
+                x[split] = size;
+                work.push(() -> {
+                    int jmp = _emit(JMP, '\0', 0, 0);
+                    y[split] = size;
+                    work.push(() -> x[jmp] = size);
+                    _push(work, t.t2);
+                });
+                _push(work, t.t1);
+            }
+            case AST.Concat<?, ?> t -> {
+                _push(work, t.t2);
+                _push(work, t.t1);
+            }
+            case AST.Star<?> t -> {
+                // L1: SPLIT L2, L3
+                // L2: t
+                //     JMP L1
+                // L3:
+                int split = _emit(SPLIT, '\0', 0, 0);
+                x[split] = size;
+                work.push(() -> {
+                    _emit(JMP, '\0', split, 0);
+                    y[split] = size;
+                });
+                _push(work, t.t);
+            }
+            case AST.Plus<?> t -> {
+                // L1: t
+                //     SPLIT L1, L2
+                // L2:
+                int loop = size;
+                work.push(() -> {
+                    int split = _emit(SPLIT, '\0', loop, 0);
+                    y[split] = size;
+                });
+                _push(work, t.t);
+            }
+            case AST.Optional<?> t -> {
+                //     SPLIT L1, L2
+                // L1: t
+                // L2:
+                int split = _emit(SPLIT, '\0', 0, 0);
+                x[split] = size;
+                work.push(() -> y[split] = size);
+                _push(work, t.t);
+            }
+            case AST.Repeat<?> t -> {
+                if(!t.counted(unrollLimit) || captures){
+                    if(t.unrolledSize() > AST.Repeat.maxUnrolledSize(unrollLimit)){
+                        throw new ResourceLimitException(ResourceLimitException.Kind.REPETITION, t.unrolledSize(), AST.Repeat.maxUnrolledSize(unrollLimit));
+                    }
+                    _unroll(t, work);
+                    return;
+                }
+                char[] ranges = t.t instanceof AST.Char c ? new char[]{c.c, c.c} : ((AST.CharSet) t.t).ranges;
+                repeats = Arrays.copyOf(repeats, repeats.length + 1);
+                repeats[repeats.length - 1] = new int[]{t.min, t.max};
+                _emit(REPEAT, '\0', _set(ranges), repeats.length - 1);
+            }
+            case AST.Group<?> t -> {
+                if(!captures || t.index == 0){
+                    _push(work, t.t);
+                    return;
+                }
+                _emit(SAVE, '\0', 2 * t.index, 0);
+                work.push(() -> _emit(SAVE, '\0', 2 * t.index + 1, 0));
+                _push(work, t.t);
+            }
+        }
+    }
+
+    private int _set(char[] ranges){
+        // 文字集合を追加し、その番号を返す (sets.lengthより多く確保し、最後にsetCountに切り詰める)
+        if(setCount == sets.length){
+            sets = Arrays.copyOf(sets, Math.max(4, setCount * 2));
+        }
+        sets[setCount] = ranges;
+        return setCount++;
+    }
+
+    private void _unroll(AST.Repeat<?> t, ArrayDeque<Runnable> work){
+        // t t ... t (min回) の後に
+        // 上限があれば    SPLIT L1, L3; L1: t; SPLIT L2, L3; L2: t; ... L3:
+        // 上限がなければ  tの繰り返し
+        // 前から順にする仕事を並べ、逆順に積む
+        List<Runnable> steps = new ArrayList<>();
+        for(int k = 0; k < t.min; k++){
+            steps.add(() -> _compile(t.t, work));
+        }
+        if(t.max == AST.Repeat.UNBOUNDED){
+            steps.add(() -> _compile(new AST.Star<>(t.t), work));
+        } else {
+            int[] splits = new int[t.max - t.min];
+            for(int k = 0; k < splits.length; k++){
+                int i = k;
+                steps.add(() -> {
+                    splits[i] = _emit(SPLIT, '\0', 0, 0);
+                    x[splits[i]] = size;
+                });
+                steps.add(() -> _compile(t.t, work));
+            }
+            steps.add(() -> {
+                for(int split : splits){
+                    y[split] = size;
+                }
+            });
+        }
+        for(int i = steps.size() - 1; i >= 0; i--){
+            work.push(steps.get(i));
+        }
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public String toString(){
+        // 命令列の文字列化
+        StringBuilder sb = new StringBuilder();
+        for(int pc = 0; pc < size; pc++){
+            sb.append(pc).append(": ").append(switch (op[pc]) {
+                case CHAR -> STR."char \{ch[pc]}";
+                case SET -> STR."set \{new AST.CharSet(sets[x[pc]])}";
+                case REPEAT -> STR."repeat \{new AST.Repeat<>(new AST.CharSet(sets[x[pc]]), repeats[y[pc]][0], repeats[y[pc]][1])}";
+                case SPLIT -> STR."split \{x[pc]}, \{y[pc]}";
+                case JMP -> STR."jmp \{x[pc]}";
+                case SAVE -> STR."save \{x[pc]}";
+                default -> "match";
+            }).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,28 @@
+package lib;
+
+public class RegexSyntaxException extends RuntimeException {
+    // 正規表現の構文エラー
+    // indexはエラーを見つけた位置 (正規表現の先頭からの文字数)
+    private final String description;
+    private final String pattern;
+    private final int index;
+
+    public RegexSyntaxException(String description, String pattern, int index){
+        super(STR."\{description} at index \{index}: \{pattern}");
+        this.description = description;
+        this.pattern = pattern;
+        this.index = index;
+    }
+
+    public String getDescription(){
+        return description;
+    }
+
+    public String getPattern(){
+        return pattern;
+    }
+
+    public int getIndex(){
+        return index;
+    }
+}
@@ -0,0 +1,41 @@
+package lib;
+
+public class ResourceLimitException extends RuntimeException {
+    // 正規表現のコンパイルや照合が資源の上限を超えた
+    // valueは上限を超えたときの値、limitはその上限
+    public enum Kind {
+        PATTERN_LENGTH("Pattern length"),
+        REPETITION("Unrolled repetition size"),
+        NFA_NODES("NFA size"),
+        STEPS("Match steps");
+
+        final String description;
+
+        Kind(String description){
+            this.description = description;
+        }
+    }
+
+    private final Kind kind;
+    private final long value;
+    private final long limit;
+
+    public ResourceLimitException(Kind kind, long value, long limit){
+        super(STR."\{kind.description} \{value} exceeds limit \{limit}");
+        this.kind = kind;
+        this.value = value;
+        this.limit = limit;
+    }
+
+    public Kind getKind(){
+        return kind;
+    }
+
+    public long getValue(){
+        return value;
+    }
+
+    public long getLimit(){
+        return limit;
+    }
+}
@@ -0,0 +1,275 @@
+package lib;
+
+import java.util.*;
+
+public final class Searcher {
+    // 入力の中から正規表現に一致する部分を探す
+    // 一致が複数あるときは、最も左から始まるもののうち最も長いものを選ぶ (leftmost-longest)
+    //
+    // 1. 先頭に .*? をつけたのと同じ前向きの走査で、選ぶべき一致の終わりを求める
+    // 2. 逆向きのNFAで終わりから後ろ向きに走査し、その一致の始まりを求める
+    // どちらも入力の長さに比例する手間で済み、位置ごとに照合をやり直すことはない
+    // 一致が必ず持つ部分文字列が入力になければ走査しない
+    // 一致が必ず持つ接頭辞があれば、走査はその接頭辞が現れる位置から始める
+    // 作業領域を持つのでスレッドセーフではない
+    public record Match(int start, int end) {
+    }
+
+    public static final int DEFAULT_CACHE_STATES = 4096;
+
+    final CharClasses classes;
+    private final Scanner forward;
+    private final Scanner backward;
+    private final Prefilter prefix;
+    private final Prefilter required;
+
+    private Searcher(NFA nfa, CharClasses classes, Literals literals, int cacheStates){
+        this.classes = classes;
+        this.prefix = new Prefilter(new Literals(null, "", "", literals.prefix()));
+        this.required = new Prefilter(literals);
+        this.forward = new Scanner(nfa, classes, true, cacheStates);
+        this.backward = new Scanner(nfa.reverse(), classes, false, cacheStates);
+    }
+
+    public static Searcher fromAST(AST ast){
+        return fromAST(ast, DEFAULT_CACHE_STATES);
+    }
+
+    public static Searcher fromAST(AST ast, int cacheStates){
+        ast = Optimizer.optimize(ast);
+        return new Searcher(NFA.fromAST(ast), CharClasses.fromAST(ast), Literals.of(ast), cacheStates);
+    }
+
+    public Match find(CharSequence s){
+        return find(s, 0);
+    }
+
+    public Match find(CharSequence s, int from){
+        // from以降で最も左から始まる最長の一致 (なければnull)
+        char[][] pages = classes.pages;
+        if(from > s.length()){
+            return null;
+        }
+
+        // 一致はどれも接頭辞の現れる位置から始まる
+        if(!prefix.isEmpty()){
+            from = prefix.indexOf(s, from);
+            if(from < 0){
+                return null;
+            }
+        }
+        if(required.required.length() > prefix.required.length() && required.indexOf(s, from) < 0){
+            return null;
+        }
+
+        // 前向き: 一致の終わり
+        int state = forward.initial();
+        int end = forward.match[state] ? from : -1;
+        for(int i = from; i < s.length() && !forward.dead[state]; i++){
+            char c = s.charAt(i);
+            state = forward.next(state, pages[c >>> 8][c & 0xFF]);
+            if(forward.match[state]){
+                end = i + 1;
+            }
+        }
+        if(end < 0){
+            return null;
+        }
+
+        // 後ろ向き: endで終わる一致のうち最も左の始まり
+        state = backward.initial();
+        int start = backward.match[state] ? end : -1;
+        for(int i = end - 1; i >= from && !backward.dead[state]; i--){
+            char c = s.charAt(i);
+            state = backward.next(state, pages[c >>> 8][c & 0xFF]);
+            if(backward.match[state]){
+                start = i;
+            }
+        }
+        return new Match(start, end);
+    }
+
+    public List<Match> findAll(CharSequence s){
+        // 重ならない一致を左から順にすべて返す
+        // 空の一致の直後は1文字進めてから探す
+        List<Match> matches = new ArrayList<>();
+        int from = 0;
+        while(from <= s.length()){
+            Match m = find(s, from);
+            if(m == null){
+                break;
+            }
+            matches.add(m);
+            from = m.end() > m.start() ? m.end() : m.end() + 1;
+        }
+        return matches;
+    }
+
+    private static final class Scanner {
+        // 状態を入力に応じて作る遅延DFA
+        // 状態はNFAの状態集合を始まった位置の早い順に並べたグループの列で、
+        //   [一致済みフラグ, グループ1の要素..., MARK, グループ2の要素..., MARK, ...]
+        // という整数列をキーにする
+        // unanchoredのときは、一致をまだ見ていなければ毎回の遷移の後に開始状態のε閉包を最後のグループとして加える
+        // どこかのグループが終了状態を含んだら、それより後に始まったグループは捨てる
+        private static final int MARK = -1;
+        private static final int UNKNOWN = -1;
+
+        private record Key(int[] ids) {
+            public boolean equals(Object obj){
+                return obj instanceof Key key && Arrays.equals(ids, key.ids);
+            }
+
+            public int hashCode(){
+                return Arrays.hashCode(ids);
+            }
+        }
+
+        final NFA nfa;
+        final CharClasses classes;
+        final boolean unanchored;
+        final int capacity;
+
+        private HashMap<Key, Integer> ids;
+        private ArrayList<int[]> keys;
+        private int[] table;
+        boolean[] match;
+        boolean[] dead;
+        private int initial;
+
+        private final int[] buffer;
+        private final long[] seen;
+
+        Scanner(NFA nfa, CharClasses classes, boolean unanchored, int capacity){
+            nfa.index();
+            this.nfa = nfa;
+            this.classes = classes;
+            this.unanchored = unanchored;
+            this.capacity = Math.max(2, capacity);
+            this.buffer = new int[2 * nfa.size + 2];
+            this.seen = new long[(nfa.size + 63) >>> 6];
+            _flush();
+        }
+
+        private void _flush(){
+            ids = new HashMap<>();
+            keys = new ArrayList<>();
+            table = new int[16 * classes.count];
+            match = new boolean[16];
+            dead = new boolean[16];
+
+            // 開始状態のε閉包だけからなる状態
+            Arrays.fill(seen, 0);
+            int size = 0;
+            buffer[size++] = 0;
+            size = _append(nfa.start, buffer, size);
+            buffer[size++] = MARK;
+            initial = _add(_finish(buffer, size));
+        }
+
+        int initial(){
+            return initial;
+        }
+
+        int next(int state, int c){
+            int next = table[state * classes.count + c];
+            if(next == UNKNOWN){
+                int[] key = _step(keys.get(state), classes.representative(c));
+                Integer id = ids.get(new Key(key));
+                if(id == null){
+                    if(keys.size() == capacity){
+                        // キャッシュが満杯なので空にする (これ以前の状態番号は無効になる)
+                        _flush();
+                        id = ids.get(new Key(key));
+                        return id != null ? id : _add(key);
+                    }
+                    id = _add(key);
+                }
+                next = id;
+                table[state * classes.count + c] = next;
+            }
+            return next;
+        }
+
+        private int _append(int n, int[] to, int size){
+            // ノードnのε閉包のうちまだ見ていない状態をtoに加える
+            for(int k = nfa.closureStart[n]; k < nfa.closureStart[n + 1]; k++){
+                int m = nfa.closureTarget[k];
+                if((seen[m >>> 6] & (1L << m)) == 0){
+                    seen[m >>> 6] |= 1L << m;
+                    to[size++] = m;
+                }
+            }
+            return size;
+        }
+
+        private int[] _step(int[] key, char c){
+            // 文字cによる遷移先のキー
+            Arrays.fill(seen, 0);
+            int size = 0;
+            buffer[size++] = key[0];
+            for(int i = 1; i < key.length; i++){
+                if(key[i] == MARK){
+                    if(buffer[size - 1] != MARK && size > 1){
+                        buffer[size++] = MARK;
+                    }
+                    continue;
+                }
+                int n = key[i];
+                for(int e = nfa.edgeStart[n]; e < nfa.edgeStart[n + 1]; e++){
+                    if(nfa.edgeLow[e] <= c && c <= nfa.edgeHigh[e]){
+                        size = _append(nfa.edgeTarget[e], buffer, size);
+                    }
+                }
+            }
+            if(size > 1 && buffer[size - 1] != MARK){
+                buffer[size++] = MARK;
+            }
+            if(unanchored && buffer[0] == 0){
+                int from = size;
+                size = _append(nfa.start, buffer, size);
+                if(size > from){
+                    buffer[size++] = MARK;
+                }
+            }
+            return _finish(buffer, size);
+        }
+
+        private int[] _finish(int[] buffer, int size){
+            // 終了状態を含む最初のグループより後のグループを捨て、一致済みフラグを立てる
+            for(int i = 1; i < size; i++){
+                if(buffer[i] == nfa.end){
+                    int j = i;
+                    while(buffer[j] != MARK){
+                        j++;
+                    }
+                    size = j + 1;
+                    buffer[0] = 1;
+                    break;
+                }
+            }
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private int _add(int[] key){
+            int id = keys.size();
+            if(id == match.length){
+                table = Arrays.copyOf(table, 2 * id * classes.count);
+                match = Arrays.copyOf(match, 2 * id);
+                dead = Arrays.copyOf(dead, 2 * id);
+            }
+            ids.put(new Key(key), id);
+            keys.add(key);
+            Arrays.fill(table, id * classes.count, (id + 1) * classes.count, UNKNOWN);
+
+            // 終了状態を含むグループがあれば一致、グループがなく新しく始まることもなければ死状態
+            boolean matched = false;
+            for(int i = 1; i < key.length; i++){
+                matched |= key[i] == nfa.end;
+            }
+            match[id] = matched;
+            dead[id] = key.length == 1 && (!unanchored || key[0] == 1);
+            return id;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package lib;
+
+final class SparseSet {
+    // 0からcapacity-1までの整数の集合
+    // 追加・判定・全削除がO(1)で、要素は追加順にdenseに並ぶ
+    final int[] dense;
+    final int[] sparse;
+    int size;
+
+    SparseSet(int capacity){
+        dense = new int[capacity];
+        sparse = new int[capacity];
+        size = 0;
+    }
+
+    boolean contains(int i){
+        int j = sparse[i];
+        return j < size && dense[j] == i;
+    }
+
+    void add(int i){
+        sparse[i] = size;
+        dense[size++] = i;
+    }
+
+    void clear(){
+        size = 0;
+    }
+}
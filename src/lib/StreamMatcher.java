@@ -0,0 +1,155 @@
+package lib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public final class StreamMatcher {
+    // 入力を少しずつ受け取りながら、行ごとにDFAで照合する
+    // DFAの状態と行の途中までの情報を持ち越すので、入力をまとめてStringにする必要はない
+    // 行は'\n'で区切り、'\n'は行に含めない
+    // ByteBufferはUTF-8として読み、位置はバイト単位で数える (CharSequenceのときは文字単位)
+    public interface LineListener {
+        // line: 0から数えた行番号、start, end: 行の始まりと終わり('\n'の位置)
+        void onMatch(long line, long start, long end);
+    }
+
+    // ファイルを一度にマップする大きさ
+    static final long WINDOW = 1L << 30;
+
+    private final int[] table;
+    private final int classCount;
+    private final char[][] pages;
+    private final boolean[] accept;
+    private final int initial;
+    private final LineListener listener;
+
+    private int state;
+    private long line;
+    private long lineStart;
+    private long position;
+    private long matched;
+
+    // UTF-8の読みかけの文字
+    private int pending;
+    private int codePoint;
+
+    public StreamMatcher(DFA dfa, LineListener listener){
+        this.table = dfa.table;
+        this.classCount = dfa.classCount;
+        this.pages = dfa.classes.pages;
+        this.accept = dfa.accept;
+        this.initial = dfa.initial;
+        this.listener = listener;
+        this.state = initial;
+    }
+
+    public void feed(CharSequence chunk){
+        // 文字の断片を読む
+        for(int i = 0; i < chunk.length(); i++){
+            _char(chunk.charAt(i));
+            position++;
+        }
+    }
+
+    public void feed(ByteBuffer chunk){
+        // バイト列の断片をUTF-8として読む (chunkの残りをすべて読み、positionをlimitまで進める)
+        // 文字の途中で断片が切れていても次の断片に続けて読む
+        for(int i = chunk.position(); i < chunk.limit(); i++){
+            _byte(chunk.get(i));
+            position++;
+        }
+        chunk.position(chunk.limit());
+    }
+
+    public void finish(){
+        // 入力の終わり
+        // 読みかけの文字は不正な文字として扱い、'\n'で終わっていない最後の行も照合する
+        if(pending > 0){
+            pending = 0;
+            _char('\uFFFD');
+        }
+        if(position > lineStart){
+            _endLine();
+        }
+    }
+
+    public long matchedLines(){
+        return matched;
+    }
+
+    public static long scan(DFA dfa, FileChannel channel, LineListener listener) throws IOException {
+        // ファイルをWINDOWずつメモリにマップして読み、一致した行の数を返す
+        // ヒープへのコピーはしない
+        StreamMatcher matcher = new StreamMatcher(dfa, listener);
+        long size = channel.size();
+        for(long offset = 0; offset < size; offset += WINDOW){
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW, size - offset));
+            matcher.feed(buffer);
+        }
+        matcher.finish();
+        return matcher.matchedLines();
+    }
+
+    private void _byte(byte b){
+        // UTF-8の1バイトを読む
+        if(pending > 0){
+            if((b & 0xC0) == 0x80){
+                codePoint = (codePoint << 6) | (b & 0x3F);
+                if(--pending == 0){
+                    _codePoint(codePoint);
+                }
+                return;
+            }
+            // 続きのバイトが来なかったので、読みかけの文字は不正な文字として扱う
+            pending = 0;
+            _char('\uFFFD');
+        }
+        if(b >= 0){
+            _char((char) b);
+        } else if((b & 0xE0) == 0xC0){
+            codePoint = b & 0x1F;
+            pending = 1;
+        } else if((b & 0xF0) == 0xE0){
+            codePoint = b & 0x0F;
+            pending = 2;
+        } else if((b & 0xF8) == 0xF0){
+            codePoint = b & 0x07;
+            pending = 3;
+        } else {
+            _char('\uFFFD');
+        }
+    }
+
+    private void _codePoint(int c){
+        if(Character.isBmpCodePoint(c)){
+            _char((char) c);
+        } else if(Character.isValidCodePoint(c)){
+            _char(Character.highSurrogate(c));
+            _char(Character.lowSurrogate(c));
+        } else {
+            _char('\uFFFD');
+        }
+    }
+
+    private void _char(char c){
+        if(c == '\n'){
+            _endLine();
+            return;
+        }
+        state = table[state * classCount + pages[c >>> 8][c & 0xFF]];
+    }
+
+    private void _endLine(){
+        // 1行を読み終えたので判定し、次の行に備える
+        // positionは'\n'の位置 (finishのときは入力の終わり)
+        if(accept[state]){
+            matched++;
+            listener.onMatch(line, lineStart, position);
+        }
+        line++;
+        lineStart = position + 1;
+        state = initial;
+    }
+}
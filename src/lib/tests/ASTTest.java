@@ -1,6 +1,7 @@
 package lib.tests;
 
 import lib.AST;
+import lib.RegexSyntaxException;
 import org.junit.jupiter.api.Test;
 
 import java.lang.reflect.Constructor;
@@ -9,6 +10,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class ASTTest {
 
@@ -133,4 +135,84 @@ public class ASTTest {
         assertThat(sampleAST1).isEqualTo(sampleAST1Copy);
         assertThat(sampleAST2).isEqualTo(sampleAST2Copy);
     }
+
+    @Test
+    void testParseLong() {
+        // 長い正規表現や深い入れ子でもスタックがあふれない
+        assertThat(AST.parse("kw|".repeat(100000) + "kw")).isNotNull();
+        assertThat(AST.parse("(".repeat(100000) + "a" + ")".repeat(100000))).isNotNull();
+        String keywords = "kw|".repeat(100) + "kw";
+        assertThat(AST.parse(keywords).toString()).isEqualTo(keywords);
+    }
+
+    @Test
+    void testParseError() {
+        // 構文エラーはその位置とともに報告される
+        assertThatThrownBy(() -> AST.parse("ab(c|d"))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(2));
+        assertThatThrownBy(() -> AST.parse("ab)c"))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(2));
+        assertThatThrownBy(() -> AST.parse("*a"))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(0));
+        assertThatThrownBy(() -> AST.parse("ab**"))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(3));
+        assertThatThrownBy(() -> AST.parse("a||b"))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(2));
+        assertThatThrownBy(() -> AST.parse(""))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(0));
+    }
+
+    @Test
+    void testParseClasses() {
+        // 文字クラス、エスケープ、量指定子
+        assertThat(AST.parse("[0-9a-f]+").toString()).isEqualTo("[0-9a-f]+");
+        assertThat(AST.parse("[fa-e0-9]").toString()).isEqualTo("[0-9a-f]");
+        assertThat(AST.parse("[^\\n]").toString()).isEqualTo(".");
+        assertThat(AST.parse("\\d\\w\\s").toString()).isEqualTo("[0-9][0-9A-Z_a-z][\\t-\\r ]");
+        assertThat(AST.parse("[-a\\]]").toString()).isEqualTo("[\\-\\]a]");
+        assertThat(AST.parse("a\\.b?(cd)+").toString()).isEqualTo("a\\.b?(cd)+");
+        assertThat(AST.parse("[a]")).isEqualTo(AST.parse("a"));
+        assertThat(AST.parse("[\\d]")).isEqualTo(AST.parse("\\d"));
+        assertThat(AST.parse("[^\\D]")).isEqualTo(AST.parse("\\d"));
+        assertThat(AST.parse("[^\\W]")).isEqualTo(AST.parse("\\w"));
+    }
+
+    @Test
+    void testParseClassError() {
+        assertThatThrownBy(() -> AST.parse("a[bc"))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(1));
+        assertThatThrownBy(() -> AST.parse("a[]"))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(1));
+        assertThatThrownBy(() -> AST.parse("[ac-b]"))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(2));
+        assertThatThrownBy(() -> AST.parse("[\\w-z]"))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(1));
+        assertThatThrownBy(() -> AST.parse("ab\\"))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(2));
+        assertThatThrownBy(() -> AST.parse("\\q"))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(0));
+        assertThatThrownBy(() -> AST.parse("a+?"))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(2));
+        assertThatThrownBy(() -> AST.parse("?"))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(0));
+    }
+
+    @Test
+    void testParseRepeat() {
+        // 回数指定の繰り返し
+        assertThat(AST.parse("a{2}b{2,}(cd){2,5}").toString()).isEqualTo("a{2}b{2,}(cd){2,5}");
+        assertThat(AST.parse("a{0,}b{1,}c{0,1}d{1}")).isEqualTo(AST.parse("a*b+c?d"));
+        assertThat(AST.parse("\\{").toString()).isEqualTo("\\{");
+
+        assertThatThrownBy(() -> AST.parse("ab{"))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(2));
+        assertThatThrownBy(() -> AST.parse("a{3,2}"))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(1));
+        assertThatThrownBy(() -> AST.parse("a{0}"))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(1));
+        assertThatThrownBy(() -> AST.parse("a{,2}"))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(1));
+        assertThatThrownBy(() -> AST.parse("a{2}{3}"))
+                .isInstanceOfSatisfying(RegexSyntaxException.class, e -> assertThat(e.getIndex()).isEqualTo(4));
+    }
 }
@@ -0,0 +1,80 @@
+package lib.tests;
+
+import lib.AST;
+import lib.BatchMatcher;
+import lib.DFA;
+import lib.Limits;
+import lib.Pattern;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BatchMatcherTest {
+
+    @Test
+    void testSameAsPattern() {
+        // 入力の数や渡し方、並列に分けるかどうかによらず、1つずつ照合した結果と一致する
+        // DFA、遅延DFA、遅延DFAのキャッシュが溢れてPike VMに切り替わるもの、はじめからPike VMのものを試す
+        Random random = new Random(4);
+        Pattern[] patterns = {
+                Pattern.compile("[a-z]+\\.[a-z]{2,3}"),
+                Pattern.compile("(a|b)*a[ab]{2,300}"),
+                Pattern.compile("x\\d*y?"),
+                Pattern.compile("(a|b)*a[ab]{5}", Limits.DEFAULT.withMaxDfaStates(16)),
+                Pattern.compile("(a|b)*a[ab]{5}", Limits.DEFAULT.withMaxDfaStates(16).withMaxCacheBytes(1)),
+        };
+        for (Pattern pattern : patterns) {
+            BatchMatcher[] matchers = {
+                    new BatchMatcher(pattern),
+                    new BatchMatcher(pattern, ForkJoinPool.commonPool(), 64),
+            };
+            for (int count : new int[]{0, 1, 3, 4, 5, 63, 64, 65, 1000}) {
+                String[] inputs = new String[count];
+                StringBuilder packed = new StringBuilder();
+                int[] offsets = new int[count + 1];
+                BitSet expected = new BitSet();
+                for (int i = 0; i < count; i++) {
+                    StringBuilder sb = new StringBuilder();
+                    int length = random.nextInt(12);
+                    for (int j = 0; j < length; j++) {
+                        sb.append("abxy0.com".charAt(random.nextInt(9)));
+                    }
+                    inputs[i] = sb.toString();
+                    packed.append(inputs[i]);
+                    offsets[i + 1] = packed.length();
+                    if (pattern.match(inputs[i])) {
+                        expected.set(i);
+                    }
+                }
+                for (BatchMatcher matcher : matchers) {
+                    assertThat(matcher.match(inputs)).isEqualTo(expected);
+                    assertThat(matcher.match(Arrays.asList(inputs))).isEqualTo(expected);
+                    assertThat(matcher.match(packed.toString().toCharArray(), offsets)).isEqualTo(expected);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testReuseResult() {
+        // 結果の配列は使い回せる (前の結果は消える)
+        BatchMatcher matcher = new BatchMatcher(DFA.fromAST(AST.parse("ab*")));
+        long[] result = {-1L, -1L};
+        matcher.match(new CharSequence[]{"a", "b", "abb"}, result);
+        assertThat(result[0]).isEqualTo(0b101L);
+        assertThat(result[1]).isEqualTo(-1L);
+
+        char[] chars = "abbbab".toCharArray();
+        matcher.match(chars, new int[]{0, 1, 4, 5, 6}, result);
+        assertThat(result[0]).isEqualTo(0b0101L);
+
+        assertThatThrownBy(() -> matcher.match(new CharSequence[65], new long[1]))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
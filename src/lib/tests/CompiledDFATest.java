@@ -0,0 +1,60 @@
+package lib.tests;
+
+import lib.AST;
+import lib.CompiledDFA;
+import lib.DFA;
+import lib.PatternSet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompiledDFATest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testDFA() throws IOException {
+        // 書き出して読み込んだものは元のDFAと同じ結果を返す
+        Path path = dir.resolve("dfa.bin");
+        DFA dfa = DFA.fromAST(AST.parse("あ(い|う)*え"));
+        CompiledDFA.write(dfa, "あ(い|う)*え", path);
+
+        CompiledDFA compiled = CompiledDFA.load(path);
+        assertThat(compiled.source()).isEqualTo("あ(い|う)*え");
+        assertThat(compiled.stateCount()).isEqualTo(dfa.stateCount());
+        assertThat(compiled.patternCount()).isEqualTo(1);
+        for (String s : List.of("あえ", "あいういえ", "あいお", "", "いえ")) {
+            assertThat(compiled.match(s)).isEqualTo(dfa.match(s));
+        }
+    }
+
+    @Test
+    void testPatternSet() throws IOException {
+        Path path = dir.resolve("set.bin");
+        PatternSet set = PatternSet.parse(List.of("a(b|c)*", "ab*", "b"));
+        CompiledDFA.write(set, "rules", path);
+
+        CompiledDFA compiled = CompiledDFA.load(path);
+        assertThat(compiled.patternCount()).isEqualTo(3);
+        assertThat(compiled.matchAll("abb")).containsExactly(0, 1);
+        assertThat(compiled.matchFirst("b")).isEqualTo(2);
+        assertThat(compiled.matchFirst("c")).isEqualTo(-1);
+        assertThat(compiled.match("acb")).isEqualTo(true);
+    }
+
+    @Test
+    void testInvalid() throws IOException {
+        // 形式の違うファイルは読み込まない
+        Path path = dir.resolve("invalid.bin");
+        Files.write(path, new byte[]{1, 2, 3, 4});
+        assertThatThrownBy(() -> CompiledDFA.load(path)).isInstanceOf(IOException.class);
+    }
+}
@@ -0,0 +1,88 @@
+package lib.tests;
+
+import lib.AST;
+import lib.DFA;
+import lib.NFA;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DFATest {
+
+    @Test
+    void testMatch() {
+        DFA dfa = DFA.fromAST(AST.parse("a(b|c)*d"));
+        assertThat(dfa.match("ad")).isEqualTo(true);
+        assertThat(dfa.match("abd")).isEqualTo(true);
+        assertThat(dfa.match("acd")).isEqualTo(true);
+        assertThat(dfa.match("abcd")).isEqualTo(true);
+        assertThat(dfa.match("abccd")).isEqualTo(true);
+        assertThat(dfa.match("abccccccde")).isEqualTo(false);
+        assertThat(dfa.match("aabcd")).isEqualTo(false);
+        assertThat(dfa.match("")).isEqualTo(false);
+
+        dfa = DFA.fromAST(AST.parse("(ab|c)d*"));
+        assertThat(dfa.match("ad")).isEqualTo(false);
+        assertThat(dfa.match("abd")).isEqualTo(true);
+        assertThat(dfa.match("acd")).isEqualTo(false);
+        assertThat(dfa.match("abcd")).isEqualTo(false);
+        assertThat(dfa.match("cddddd")).isEqualTo(true);
+        assertThat(dfa.match("abccccccde")).isEqualTo(false);
+    }
+
+    @Test
+    void testFromRemovedEpsilon() {
+        // ε除去後のNFAからも同じ言語のDFAが得られる
+        NFA nfa = NFA.fromAST(AST.parse("a(b|c)*d"));
+        nfa.removeEpsilon();
+        DFA dfa = DFA.fromNFA(nfa);
+        assertThat(dfa.match("ad")).isEqualTo(true);
+        assertThat(dfa.match("abcbcd")).isEqualTo(true);
+        assertThat(dfa.match("abcbc")).isEqualTo(false);
+    }
+
+    @Test
+    void testStateCount() {
+        // 死状態を含めて状態は連番で振られる
+        DFA dfa = DFA.fromAST(AST.parse("ab"));
+        assertThat(dfa.stateCount()).isEqualTo(4);
+    }
+
+    @Test
+    void testMinimize() {
+        // (a|b)*a(a|b)(a|b) の最小DFAは、直近3文字の8通りと死状態の9状態
+        DFA dfa = DFA.fromNFA(NFA.fromAST(AST.parse("(a|b)*a(a|b)(a|b)")));
+        DFA.MinimizeStats stats = dfa.minimize();
+        assertThat(stats.statesBefore()).isEqualTo(10);
+        assertThat(stats.statesAfter()).isEqualTo(9);
+        assertThat(dfa.stateCount()).isEqualTo(9);
+        assertThat(dfa.minimizeStats()).isEqualTo(stats);
+
+        assertThat(dfa.match("aab")).isEqualTo(true);
+        assertThat(dfa.match("babaab")).isEqualTo(true);
+        assertThat(dfa.match("abba")).isEqualTo(false);
+
+        // 同じ選択肢が並ぶ和は1つにまとまる
+        dfa = DFA.fromAST(AST.parse("(ab|ab|ab)c*"));
+        assertThat(dfa.stateCount()).isEqualTo(4);
+        assertThat(dfa.match("abccc")).isEqualTo(true);
+        assertThat(dfa.match("ac")).isEqualTo(false);
+    }
+
+    @Test
+    void testCharClasses() {
+        // 遷移表はパターンに現れる文字のクラスとその他のクラスの列だけを持つ
+        DFA dfa = DFA.fromAST(AST.parse("あ(い|う)*え"));
+        assertThat(dfa.match("あいういえ")).isEqualTo(true);
+        assertThat(dfa.match("あえ")).isEqualTo(true);
+        assertThat(dfa.match("あおえ")).isEqualTo(false);
+        assertThat(dfa.match("aいえ")).isEqualTo(false);
+        assertThat(dfa.match("\uffffい")).isEqualTo(false);
+
+        // 長い正規表現でもクラスを作るときにスタックがあふれない
+        String s = "abcd".repeat(10000);
+        dfa = DFA.fromAST(AST.parse(s));
+        assertThat(dfa.match(s)).isEqualTo(true);
+        assertThat(dfa.match(s + "a")).isEqualTo(false);
+    }
+}
@@ -0,0 +1,89 @@
+package lib.tests;
+
+import lib.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class InstrumentationTest {
+
+    @Test
+    void testStats() {
+        Instrumentation instrumentation = new Instrumentation();
+        Matcher pattern = instrumentation.wrap(Pattern.compile("a(b|c)*d"));
+        Matcher vm = instrumentation.wrap("vm", PikeVM.fromAST(AST.parse("(a|b)*a")));
+        Matcher lazy = instrumentation.wrap("lazy", LazyDFA.fromAST(AST.parse("(a|b)*a")));
+        AtomicInteger calls = new AtomicInteger();
+        instrumentation.addListener((stats, length, matched, nanos, states, cacheMisses) -> calls.incrementAndGet());
+
+        assertThat(pattern.match("abcd")).isEqualTo(true);
+        assertThat(pattern.match("abc")).isEqualTo(false);
+        assertThat(vm.match("aba")).isEqualTo(true);
+        assertThat(lazy.match("aba")).isEqualTo(true);
+
+        PatternStats stats = instrumentation.stats("a(b|c)*d");
+        assertThat(stats.calls()).isEqualTo(2);
+        assertThat(stats.matches()).isEqualTo(1);
+        assertThat(stats.chars()).isEqualTo(7);
+        assertThat(stats.nanos().count()).isEqualTo(2);
+
+        // Pike VMはたどった状態の数、遅延DFAはキャッシュミスを数える
+        assertThat(instrumentation.stats("vm").states()).isGreaterThan(0);
+        assertThat(instrumentation.stats("lazy").cacheMisses()).isGreaterThan(0);
+        assertThat(instrumentation.all()).hasSize(3);
+        assertThat(calls.get()).isEqualTo(4);
+    }
+
+    @Test
+    void testFailure() {
+        // 照合が例外で終わっても記録し、例外はそのまま投げる
+        Instrumentation instrumentation = new Instrumentation();
+        Matcher pattern = instrumentation.wrap("limited", Pattern.compile("(a|b)*a[ab]{2,300}", Limits.DEFAULT.withMaxSteps(1000)));
+        AtomicInteger matches = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        instrumentation.addListener(new MatchListener() {
+            @Override
+            public void onMatch(PatternStats stats, int length, boolean matched, long nanos, long states, long cacheMisses) {
+                matches.incrementAndGet();
+            }
+
+            @Override
+            public void onFailure(PatternStats stats, int length, long nanos, long states, long cacheMisses, Throwable e) {
+                failure.set(e);
+            }
+        });
+
+        assertThat(pattern.match("aab")).isEqualTo(true);
+        long states = instrumentation.stats("limited").states();
+        assertThatThrownBy(() -> pattern.match("ab".repeat(1000)))
+                .isInstanceOf(ResourceLimitException.class);
+
+        PatternStats stats = instrumentation.stats("limited");
+        assertThat(stats.calls()).isEqualTo(2);
+        assertThat(stats.matches()).isEqualTo(1);
+        assertThat(stats.failures()).isEqualTo(1);
+        assertThat(stats.chars()).isEqualTo(2003);
+        assertThat(stats.nanos().count()).isEqualTo(2);
+        // 例外までにたどった状態も数える
+        assertThat(stats.states()).isGreaterThan(states);
+        assertThat(matches.get()).isEqualTo(1);
+        assertThat(failure.get()).isInstanceOf(ResourceLimitException.class);
+    }
+
+    @Test
+    void testHistogram() {
+        // 値は1/16以下の誤差でバケットの上端に丸められる
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertThat(histogram.count()).isEqualTo(1000);
+        assertThat(histogram.valueAtPercentile(50)).isBetween(500L, 500L + 500 / 16);
+        assertThat(histogram.valueAtPercentile(99)).isBetween(990L, 990L + 990 / 16);
+        assertThat(histogram.max()).isBetween(1000L, 1000L + 1000 / 16);
+    }
+}
@@ -0,0 +1,68 @@
+package lib.tests;
+
+import lib.AST;
+import lib.LazyDFA;
+import lib.NFA;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LazyDFATest {
+
+    static final String BLOWUP = "(a|b)*a(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)";
+
+    static String randomInput(Random random) {
+        // a, bを中心にたまにcを混ぜた入力を作る
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(20);
+        for (int i = 0; i < length; i++) {
+            sb.append(random.nextInt(10) == 0 ? 'c' : random.nextBoolean() ? 'a' : 'b');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void testMatch() {
+        LazyDFA dfa = LazyDFA.fromAST(AST.parse("a(b|c)*d"));
+        assertThat(dfa.match("ad")).isEqualTo(true);
+        assertThat(dfa.match("abccd")).isEqualTo(true);
+        assertThat(dfa.match("abccccccde")).isEqualTo(false);
+        assertThat(dfa.match("aabcd")).isEqualTo(false);
+
+        // 2回目以降はキャッシュから遷移を引く
+        assertThat(dfa.match("abccd")).isEqualTo(true);
+        LazyDFA.CacheStats stats = dfa.cacheStats();
+        assertThat(stats.hits()).isGreaterThan(0);
+        assertThat(stats.misses()).isGreaterThan(0);
+        assertThat(stats.flushes()).isEqualTo(0);
+    }
+
+    @Test
+    void testFlush() {
+        // キャッシュが小さくても結果はNFAと変わらない
+        NFA nfa = NFA.fromAST(AST.parse(BLOWUP));
+        LazyDFA dfa = LazyDFA.fromAST(AST.parse(BLOWUP), 1000, Integer.MAX_VALUE);
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            String s = randomInput(random);
+            assertThat(dfa.match(s)).isEqualTo(nfa.match(s));
+        }
+        assertThat(dfa.cacheStats().flushes()).isGreaterThan(0);
+        assertThat(dfa.cacheStats().fallback()).isEqualTo(false);
+    }
+
+    @Test
+    void testFallback() {
+        // 作り直しが上限を超えるとNFAのシミュレーションに切り替わる
+        NFA nfa = NFA.fromAST(AST.parse(BLOWUP));
+        LazyDFA dfa = LazyDFA.fromAST(AST.parse(BLOWUP), 100, 2);
+        Random random = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            String s = randomInput(random);
+            assertThat(dfa.match(s)).isEqualTo(nfa.match(s));
+        }
+        assertThat(dfa.cacheStats().fallback()).isEqualTo(true);
+    }
+}
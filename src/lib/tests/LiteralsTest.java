@@ -0,0 +1,43 @@
+package lib.tests;
+
+import lib.AST;
+import lib.Literals;
+import lib.Pattern;
+import lib.Searcher;
+import org.junit.jupiter.api.Test;
+
+import java.nio.CharBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LiteralsTest {
+
+    @Test
+    void testOf() {
+        assertThat(Literals.of(AST.parse("abc"))).isEqualTo(new Literals("abc", "abc", "abc", "abc"));
+        assertThat(Literals.of(AST.parse("ab(c|d)*ef"))).isEqualTo(new Literals(null, "ab", "ef", "ab"));
+        assertThat(Literals.of(AST.parse("(abc|abd)x"))).isEqualTo(new Literals(null, "ab", "x", "ab"));
+        assertThat(Literals.of(AST.parse("a*(xyzw)b*"))).isEqualTo(new Literals(null, "", "", "xyzw"));
+        assertThat(Literals.of(AST.parse("(a|b)*"))).isEqualTo(new Literals(null, "", "", ""));
+
+        // 長い連結でもスタックがあふれない
+        String ab = "ab".repeat(50000);
+        assertThat(Literals.of(AST.parse(ab))).isEqualTo(new Literals(ab, ab, ab, ab));
+        assertThat(Literals.of(AST.parse("(a)" + "[bc]".repeat(5000) + "d")).required()).isEqualTo("a");
+    }
+
+    @Test
+    void testPrefilter() {
+        // 必要な文字列がなければ照合しないが、結果は変わらない
+        Pattern pattern = Pattern.compile("a*(xyzw)b*");
+        assertThat(pattern.match("aaxyzwbb")).isEqualTo(true);
+        assertThat(pattern.match(CharBuffer.wrap("axyzwb"))).isEqualTo(true);
+        assertThat(pattern.match(CharBuffer.wrap("axyzb"))).isEqualTo(false);
+        assertThat(pattern.match("ab")).isEqualTo(false);
+
+        Searcher searcher = Searcher.fromAST(AST.parse("ab(c|d)*"));
+        assertThat(searcher.find("xxabcdxab")).isEqualTo(new Searcher.Match(2, 6));
+        assertThat(searcher.find(CharBuffer.wrap("xxabcdxab"), 3)).isEqualTo(new Searcher.Match(7, 9));
+        assertThat(searcher.find("xxacd")).isNull();
+    }
+}
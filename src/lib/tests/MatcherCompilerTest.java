@@ -0,0 +1,44 @@
+package lib.tests;
+
+import lib.AST;
+import lib.DFA;
+import lib.Matcher;
+import lib.MatcherCompiler;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MatcherCompilerTest {
+
+    @Test
+    void testCompile() {
+        // 生成したクラスは元のDFAと同じ結果を返す
+        Random random = new Random(1);
+        for (String pattern : new String[]{"a(b|c)*d", "あ(い|う)*え", "(a|b)*a(a|b)(a|b)", "ab|ac|a"}) {
+            DFA dfa = DFA.fromAST(AST.parse(pattern));
+            Matcher matcher = MatcherCompiler.compile(dfa);
+            assertThat(matcher.getClass().getName()).startsWith("lib.GeneratedMatcher");
+            for (int i = 0; i < 1000; i++) {
+                StringBuilder sb = new StringBuilder();
+                int length = random.nextInt(10);
+                for (int j = 0; j < length; j++) {
+                    sb.append("abcdあいうえ".charAt(random.nextInt(8)));
+                }
+                assertThat(matcher.match(sb)).isEqualTo(dfa.match(sb));
+            }
+        }
+    }
+
+    @Test
+    void testFallback() {
+        // 状態数が上限を超えると遷移表で照合する
+        DFA dfa = DFA.fromAST(AST.parse("(a|b)*a" + "(a|b)".repeat(8)));
+        assertThat(dfa.stateCount()).isGreaterThan(MatcherCompiler.MAX_STATES);
+        Matcher matcher = MatcherCompiler.compile(dfa);
+        assertThat(matcher.getClass().getName()).doesNotStartWith("lib.GeneratedMatcher");
+        assertThat(matcher.match("a" + "b".repeat(8))).isEqualTo(true);
+        assertThat(matcher.match("b".repeat(9))).isEqualTo(false);
+    }
+}
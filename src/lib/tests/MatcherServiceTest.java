@@ -0,0 +1,111 @@
+package lib.tests;
+
+import lib.MatcherService;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MatcherServiceTest {
+
+    @Test
+    void testMatch() throws Exception {
+        try (MatcherService service = new MatcherService()) {
+            service.register("p", "a(b|c)*d");
+            assertThat(service.submit("p", "abcd").get()).isEqualTo(true);
+            assertThat(service.submit("p", "abce").get()).isEqualTo(false);
+
+            byte[] bytes = ("a" + "bc".repeat(10000) + "d").getBytes(StandardCharsets.UTF_8);
+            assertThat(service.submit("p", Channels.newChannel(new ByteArrayInputStream(bytes)), null).get()).isEqualTo(true);
+
+            assertThatThrownBy(() -> service.submit("x", "a")).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void testChannel() throws Exception {
+        // DFAで照合するものは読んだ断片ごとに進め、一致しないことが決まれば終わりまで読まない
+        ReadableByteChannel endless = new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) {
+                int n = dst.remaining();
+                while (dst.hasRemaining()) {
+                    dst.put((byte) 'b');
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try (MatcherService service = new MatcherService()) {
+            service.register("p", "a(b|c)*d");
+            service.register("counted", "(a|b)*a[ab]{2,300}");
+            assertThat(service.submit("p", endless, Duration.ofSeconds(10)).get()).isEqualTo(false);
+
+            // 途中で時間切れになれば読むのをやめる
+            service.register("all", "b*");
+            CompletableFuture<Boolean> timeout = service.submit("all", endless, Duration.ofMillis(10));
+            assertThatThrownBy(timeout::get).isInstanceOf(ExecutionException.class).hasCauseInstanceOf(TimeoutException.class);
+
+            // DFAのないものは終わりまで読んでから照合する
+            byte[] bytes = ("é".repeat(5000) + "ab").getBytes(StandardCharsets.UTF_8);
+            assertThat(service.submit("counted", Channels.newChannel(new ByteArrayInputStream(bytes)), null).get()).isEqualTo(false);
+            bytes = "ab".repeat(5000).getBytes(StandardCharsets.UTF_8);
+            assertThat(service.submit("counted", Channels.newChannel(new ByteArrayInputStream(bytes)), null).get()).isEqualTo(true);
+        }
+    }
+
+    @Test
+    void testBudget() throws Exception {
+        // 時間切れの照合は途中でやめ、その間も他の照合は進む
+        try (MatcherService service = new MatcherService()) {
+            service.register("slow", "(a|b)*a[ab]{2,300}");
+            service.register("fast", "a(b|c)*d");
+            String input = "ab".repeat(5000000);
+            CompletableFuture<Boolean> slow = service.submit("slow", input, Duration.ofMillis(10));
+            assertThat(service.submit("fast", "abd", Duration.ofSeconds(10)).get()).isEqualTo(true);
+            assertThatThrownBy(slow::get).isInstanceOf(ExecutionException.class).hasCauseInstanceOf(TimeoutException.class);
+
+            CompletableFuture<Boolean> cancelled = service.submit("slow", input);
+            cancelled.cancel(true);
+            assertThat(cancelled.isCancelled()).isEqualTo(true);
+        }
+    }
+
+    @Test
+    void testBackpressure() throws Exception {
+        // 照合中が1つ、キューで待つのが1つで一杯になる
+        try (MatcherService service = new MatcherService(1, 1, null)) {
+            service.register("slow", "(a|b)*a[ab]{2,300}");
+            String input = "ab".repeat(5000000);
+            CompletableFuture<Boolean> running = service.submit("slow", input);
+            while (service.queued() > 0) {
+                Thread.sleep(1);
+            }
+            CompletableFuture<Boolean> waiting = service.trySubmit("slow", "aab", null);
+            CompletableFuture<Boolean> rejected = service.trySubmit("slow", "aab", null);
+            assertThatThrownBy(rejected::get).hasCauseInstanceOf(RejectedExecutionException.class);
+
+            running.cancel(false);
+            assertThat(waiting.get()).isEqualTo(true);
+        }
+    }
+}
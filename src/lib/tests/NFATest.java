@@ -7,37 +7,57 @@ import org.junit.jupiter.api.Test;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 class NFATest {
 
-    public static HashMap<Integer, Object> getNodes(NFA nfa) throws NoSuchFieldException, IllegalAccessException {
-        Field nodesField = nfa.getClass().getDeclaredField("nodes");
-        nodesField.setAccessible(true);
-        return (HashMap<Integer, Object>) nodesField.get(nfa);
+    public static Object getField(NFA nfa, String name) throws NoSuchFieldException, IllegalAccessException {
+        Field field = NFA.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(nfa);
     }
 
-    public static Object getStart(NFA nfa) throws NoSuchFieldException, IllegalAccessException {
-        Field startField = nfa.getClass().getDeclaredField("start");
-        startField.setAccessible(true);
-        return startField.get(nfa);
+    public static int getSize(NFA nfa) throws NoSuchFieldException, IllegalAccessException {
+        return (int) getField(nfa, "size");
     }
 
-    public static Object getEnd(NFA nfa) throws NoSuchFieldException, IllegalAccessException {
-        Field endField = nfa.getClass().getDeclaredField("end");
-        endField.setAccessible(true);
-        return endField.get(nfa);
+    public static int getStart(NFA nfa) throws NoSuchFieldException, IllegalAccessException {
+        return (int) getField(nfa, "start");
     }
 
-    public static HashMap<Character, HashSet<Object>> getTransitionsTo(Object node) throws NoSuchFieldException, IllegalAccessException {
-        Field transitionsField = node.getClass().getDeclaredField("transitionsTo");
-        transitionsField.setAccessible(true);
-        assert transitionsField.get(node) instanceof HashMap;
-        return (HashMap<Character, HashSet<Object>>) transitionsField.get(node);
+    public static int getEnd(NFA nfa) throws NoSuchFieldException, IllegalAccessException {
+        return (int) getField(nfa, "end");
+    }
+
+    public static List<Integer> getTransitions(NFA nfa, int node, char c) throws NoSuchFieldException, IllegalAccessException {
+        // nodeから文字cで遷移できるノード
+        int[] edgeStart = (int[]) getField(nfa, "edgeStart");
+        char[] edgeLow = (char[]) getField(nfa, "edgeLow");
+        char[] edgeHigh = (char[]) getField(nfa, "edgeHigh");
+        int[] edgeTarget = (int[]) getField(nfa, "edgeTarget");
+        List<Integer> targets = new ArrayList<>();
+        for(int e = edgeStart[node]; e < edgeStart[node + 1]; e++){
+            if(edgeLow[e] <= c && c <= edgeHigh[e]){
+                targets.add(edgeTarget[e]);
+            }
+        }
+        return targets;
+    }
+
+    public static List<Integer> getEpsilons(NFA nfa, int node) throws NoSuchFieldException, IllegalAccessException {
+        // nodeからε遷移できるノード
+        int[] epsilonStart = (int[]) getField(nfa, "epsilonStart");
+        int[] epsilonTarget = (int[]) getField(nfa, "epsilonTarget");
+        List<Integer> targets = new ArrayList<>();
+        for(int e = epsilonStart[node]; e < epsilonStart[node + 1]; e++){
+            targets.add(epsilonTarget[e]);
+        }
+        return targets;
     }
 
     @Test
@@ -60,64 +80,72 @@ class NFATest {
 
         // Char
         NFA nfa = NFA.fromAST(charA);
-        assertThat(getNodes(nfa).size()).isEqualTo(2);
-        assertThat(getTransitionsTo(getStart(nfa)).get('a')).contains(getEnd(nfa));
+        assertThat(getSize(nfa)).isEqualTo(2);
+        assertThat(getTransitions(nfa, getStart(nfa), 'a')).containsExactly(getEnd(nfa));
 
-        // Union
+        // Union: 選択肢は開始状態と終了状態を共有する
         nfa = NFA.fromAST(unionAB);
-        assertThat(getNodes(nfa).size()).isEqualTo(6);
-        assertThat(getTransitionsTo(getStart(nfa)).get(null).size()).isEqualTo(2);
-        Object end = getEnd(nfa);
-        Object node1 = getTransitionsTo(getStart(nfa)).get(null).toArray()[0];
-        Object node2 = getTransitionsTo(getStart(nfa)).get(null).toArray()[1];
-        HashMap<Character, HashSet<Object>> transitions1 = getTransitionsTo(node1);
-        HashMap<Character, HashSet<Object>> transitions2 = getTransitionsTo(node2);
-        if(transitions1.containsKey('a')){
-            assertThat(transitions2).containsKey('b');
-            assertThat(getTransitionsTo(transitions1.get('a').toArray()[0]).get(null)).contains(end);
-            assertThat(getTransitionsTo(transitions2.get('b').toArray()[0]).get(null)).contains(end);
-        } else {
-            assertThat(transitions1).containsKey('b');
-            assertThat(getTransitionsTo(transitions1.get('b').toArray()[0]).get(null)).contains(end);
-            assertThat(getTransitionsTo(transitions2.get('a').toArray()[0]).get(null)).contains(end);
-        }
+        assertThat(getSize(nfa)).isEqualTo(2);
+        assertThat(getTransitions(nfa, getStart(nfa), 'a')).containsExactly(getEnd(nfa));
+        assertThat(getTransitions(nfa, getStart(nfa), 'b')).containsExactly(getEnd(nfa));
+        assertThat(getEpsilons(nfa, getStart(nfa))).isEmpty();
 
-        // Concat
+        // Concat: 間にノードを1つ置く
         nfa = NFA.fromAST(concatAB);
-        end = getEnd(nfa);
-        assertThat(getNodes(nfa).size()).isEqualTo(4);
-        assertThat(getTransitionsTo(getStart(nfa))).containsKey('a');
-        Object node = getTransitionsTo(getStart(nfa)).get('a').toArray()[0];
-        assertThat(getTransitionsTo(node)).containsKey(null);
-        node = getTransitionsTo(node).get(null).toArray()[0];
-        assertThat(getTransitionsTo(node)).containsKey('b');
-        assertThat(getTransitionsTo(node).get('b')).contains(end);
-
-        // Star
+        assertThat(getSize(nfa)).isEqualTo(3);
+        List<Integer> middle = getTransitions(nfa, getStart(nfa), 'a');
+        assertThat(middle).hasSize(1);
+        assertThat(getTransitions(nfa, middle.getFirst(), 'b')).containsExactly(getEnd(nfa));
+
+        // Star: 開始状態 -ε-> loop -ε-> 終了状態、loopからloopへaで戻る
         nfa = NFA.fromAST(starA);
-        end = getEnd(nfa);
-        assertThat(getNodes(nfa).size()).isEqualTo(4);
-        assertThat(getTransitionsTo(getStart(nfa)).get(null).size()).isEqualTo(2);
-        node1 = getTransitionsTo(getStart(nfa)).get(null).toArray()[0];
-        node2 = getTransitionsTo(getStart(nfa)).get(null).toArray()[1];
-        if(node1.equals(end)){
-            assertThat(getTransitionsTo(node2)).containsKey('a');
-            Object node3 = getTransitionsTo(node2).get('a').toArray()[0];
-            assertThat(getTransitionsTo(node3)).containsKey(null);
-            assertThat(getTransitionsTo(node3).get(null)).contains(node2);
-            assertThat(getTransitionsTo(node3).get(null)).contains(end);
-        } else {
-            assertThat(node2).isEqualTo(end);
-            Object node3 = getTransitionsTo(node1).get('a').toArray()[0];
-            assertThat(getTransitionsTo(node3)).containsKey(null);
-            assertThat(getTransitionsTo(node3).get(null)).contains(node2);
-            assertThat(getTransitionsTo(node3).get(null)).contains(end);
-        }
+        assertThat(getSize(nfa)).isEqualTo(3);
+        List<Integer> loop = getEpsilons(nfa, getStart(nfa));
+        assertThat(loop).hasSize(1);
+        assertThat(getTransitions(nfa, loop.getFirst(), 'a')).containsExactly(loop.getFirst());
+        assertThat(getEpsilons(nfa, loop.getFirst())).containsExactly(getEnd(nfa));
 
         // Group
         nfa = NFA.fromAST(groupA);
-        assertThat(getNodes(nfa).size()).isEqualTo(2);
-        assertThat(getTransitionsTo(getStart(nfa)).get('a')).contains(getEnd(nfa));
+        assertThat(getSize(nfa)).isEqualTo(2);
+        assertThat(getTransitions(nfa, getStart(nfa), 'a')).containsExactly(getEnd(nfa));
+    }
+
+    @Test
+    void testCharClass() throws NoSuchFieldException, IllegalAccessException {
+        // 文字集合は範囲ごとに1本の遷移になる
+        NFA nfa = NFA.fromAST(AST.parse("[0-9a-f]"));
+        assertThat(getSize(nfa)).isEqualTo(2);
+        assertThat(((int[]) getField(nfa, "edgeTarget")).length).isEqualTo(2);
+        assertThat(getTransitions(nfa, getStart(nfa), '7')).containsExactly(getEnd(nfa));
+        assertThat(getTransitions(nfa, getStart(nfa), 'g')).isEmpty();
+
+        nfa = NFA.fromAST(AST.parse("\\d+(\\.\\d+)?[^x]"));
+        assertThat(nfa.match("12.5y")).isTrue();
+        assertThat(nfa.match("12y")).isTrue();
+        assertThat(nfa.match("12.y")).isFalse();
+        assertThat(nfa.match("12.5x")).isFalse();
+        nfa.removeEpsilon();
+        assertThat(nfa.match("12.5y")).isTrue();
+        assertThat(nfa.match("12.y")).isFalse();
+    }
+
+    @Test
+    void testDeepAST(){
+        // 選択肢の多い和や長い連結でもスタックがあふれない
+        StringBuilder union = new StringBuilder("x");
+        for(int i = 1; i < 20000; i++){
+            union.append("|y").append(i % 10);
+        }
+        NFA nfa = NFA.fromAST(AST.parse(union.toString()));
+        assertThat(nfa.match("x")).isTrue();
+        assertThat(nfa.match("y7")).isTrue();
+        assertThat(nfa.match("y")).isFalse();
+
+        AST ast = AST.parse("a".repeat(20000));
+        nfa = NFA.fromAST(ast);
+        assertThat(nfa.match("a".repeat(20000))).isTrue();
+        assertThat(nfa.match("a".repeat(19999))).isFalse();
     }
 
     @Test
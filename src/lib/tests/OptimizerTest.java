@@ -0,0 +1,74 @@
+package lib.tests;
+
+import lib.AST;
+import lib.NFA;
+import lib.Optimizer;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OptimizerTest {
+
+    static String optimize(String re) {
+        return Optimizer.optimize(AST.parse(re)).toString();
+    }
+
+    @Test
+    void testOptimize() {
+        // グループを外す
+        assertThat(optimize("((a)b)")).isEqualTo("ab");
+
+        // 繰り返しの繰り返しをまとめる
+        assertThat(optimize("((a*)*)*")).isEqualTo("a*");
+        assertThat(optimize("(a*|b)*")).isEqualTo("[ab]*");
+        assertThat(optimize("a*a*b")).isEqualTo("a*b");
+
+        // 一文字の選択肢を文字集合にする
+        assertThat(optimize("a|b|c|d")).isEqualTo("[a-d]");
+        assertThat(optimize("(x|y|z)(x|z)")).isEqualTo("[x-z][xz]");
+
+        // 選択肢を先頭の要素でまとめる
+        assertThat(optimize("abc|abd|ae")).isEqualTo("a(e|b[cd])");
+        assertThat(optimize("ab|ab|ab")).isEqualTo("ab");
+        assertThat(optimize("(ab|a)c")).isEqualTo("(a|ab)c");
+
+        // 選択肢が多くてもスタックがあふれない
+        assertThat(optimize("kw|".repeat(100000) + "kw")).isEqualTo("kw");
+    }
+
+    @Test
+    void testDeep() {
+        // 深い入れ子や長い共通の先頭でもスタックがあふれない
+        assertThat(optimize("(a*".repeat(20000) + ")".repeat(20000))).isEqualTo("a*");
+        assertThat(optimize("(".repeat(20000) + "a" + ")*".repeat(20000))).isEqualTo("a*");
+
+        // 結果も深いので、文字列にせずNFAで確かめる
+        NFA nested = NFA.fromAST(Optimizer.optimize(AST.parse("(a".repeat(20000) + ")".repeat(20000))));
+        assertThat(nested.match("a".repeat(20000))).isEqualTo(true);
+        assertThat(nested.match("a".repeat(19999))).isEqualTo(false);
+        NFA shared = NFA.fromAST(Optimizer.optimize(AST.parse("a".repeat(20000) + "b|" + "a".repeat(20000) + "c")));
+        assertThat(shared.match("a".repeat(20000) + "c")).isEqualTo(true);
+        assertThat(shared.match("a".repeat(19999) + "c")).isEqualTo(false);
+    }
+
+    @Test
+    void testLanguage() {
+        // 書き換えても同じ文字列に一致する
+        String[] patterns = {"a(b|c)*d", "(ab|ac|a)*(b|c)", "((a|b)*|c)*a", "(abc|abd|ab)(c|d)*"};
+        Random random = new Random(1);
+        for (String pattern : patterns) {
+            NFA nfa = NFA.fromAST(AST.parse(pattern));
+            NFA optimized = NFA.fromAST(Optimizer.optimize(AST.parse(pattern)));
+            for (int i = 0; i < 1000; i++) {
+                StringBuilder sb = new StringBuilder();
+                int length = random.nextInt(8);
+                for (int j = 0; j < length; j++) {
+                    sb.append("abcd".charAt(random.nextInt(4)));
+                }
+                assertThat(optimized.match(sb)).isEqualTo(nfa.match(sb));
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package lib.tests;
+
+import lib.AST;
+import lib.DFA;
+import lib.NFA;
+import lib.ParallelScanner;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ParallelScannerTest {
+
+    @Test
+    void testSameAsNFA() {
+        // 区間を小さくして細かく分けても、分けずに照合した結果と一致する
+        Random random = new Random(3);
+        for (String re : new String[]{"(a|b)*a(a|b)(a|b)", "(ab|c)d*", "a(b|c)*d"}) {
+            NFA nfa = NFA.fromAST(AST.parse(re));
+            ParallelScanner scanner = new ParallelScanner(DFA.fromAST(AST.parse(re)), ForkJoinPool.commonPool(), 7);
+            for (int i = 0; i < 300; i++) {
+                StringBuilder sb = new StringBuilder();
+                int length = random.nextInt(60);
+                for (int j = 0; j < length; j++) {
+                    sb.append("abcd\n".charAt(random.nextInt(5)));
+                }
+                String s = sb.toString();
+                assertThat(scanner.match(s)).isEqualTo(nfa.match(s));
+
+                // 最後の'\n'の後ろが空なら行として数えない
+                long expected = 0;
+                String[] lines = s.split("\n", -1);
+                for (int j = 0; j < lines.length; j++) {
+                    if (j == lines.length - 1 && lines[j].isEmpty()) {
+                        break;
+                    }
+                    if (nfa.match(lines[j])) {
+                        expected++;
+                    }
+                }
+                assertThat(scanner.countMatchingLines(s)).isEqualTo(expected);
+                assertThat(scanner.countMatchingLines(ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8)))).isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    void testLongLines() {
+        // 区間より長い行があっても、前後の'\n'で分けるか、1行だけなら行の中を分けて読む
+        DFA dfa = DFA.fromAST(AST.parse("(a|b)*a(a|b)"));
+        ParallelScanner scanner = new ParallelScanner(dfa, ForkJoinPool.commonPool(), 16);
+        String line = "ab".repeat(1000);
+        for (String s : new String[]{line + "ab", line + "ab\n", "aa\n" + line + "aa\nbb\n" + line + "b", line + "\n\n" + line + "aa"}) {
+            long expected = s.lines().filter(dfa::match).count();
+            assertThat(scanner.countMatchingLines(s)).isEqualTo(expected);
+            assertThat(scanner.countMatchingLines(ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8)))).isEqualTo(expected);
+        }
+    }
+}
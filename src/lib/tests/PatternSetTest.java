@@ -0,0 +1,84 @@
+package lib.tests;
+
+import lib.AST;
+import lib.Limits;
+import lib.NFA;
+import lib.PatternSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PatternSetTest {
+
+    @Test
+    void testMatch() {
+        PatternSet set = PatternSet.parse(List.of("a(b|c)*d", "(ab|c)d*", "ab*d", "x"));
+        assertThat(set.size()).isEqualTo(4);
+        assertThat(set.matchAll("abd")).containsExactly(0, 1, 2);
+        assertThat(set.matchAll("acd")).containsExactly(0);
+        assertThat(set.matchAll("cdd")).containsExactly(1);
+        assertThat(set.matchAll("x")).containsExactly(3);
+        assertThat(set.matchAll("y")).isEmpty();
+
+        // 番号が最も小さいものを優先する
+        assertThat(set.matchFirst("abd")).isEqualTo(0);
+        assertThat(set.matchFirst("cdd")).isEqualTo(1);
+        assertThat(set.matchFirst("y")).isEqualTo(-1);
+        assertThat(set.matchAny("x")).isEqualTo(true);
+        assertThat(set.matchAny("")).isEqualTo(false);
+    }
+
+    @Test
+    void testSameAsNFA() {
+        // それぞれの正規表現を個別にNFAで照合した結果と一致する
+        List<String> patterns = List.of("(a|b)*a(a|b)", "a*b*", "(ab|ba)*", "b(a|b)*b", "aa*");
+        PatternSet set = PatternSet.parse(patterns);
+        List<NFA> nfas = new ArrayList<>();
+        for (String pattern : patterns) {
+            nfas.add(NFA.fromAST(AST.parse(pattern)));
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                sb.append(random.nextBoolean() ? 'a' : 'b');
+            }
+            List<Integer> expected = new ArrayList<>();
+            for (int k = 0; k < nfas.size(); k++) {
+                if (nfas.get(k).match(sb)) {
+                    expected.add(k);
+                }
+            }
+            assertThat(set.matchAll(sb)).containsExactly(expected.stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    @Test
+    void testLazy() {
+        // 状態数が上限を超えると遅延DFAで照合し、結果は変わらない
+        List<String> patterns = new ArrayList<>();
+        for (String word : List.of("ab", "ba", "aab", "bba", "abab", "baab", "aaa", "bbb")) {
+            patterns.add(".*" + word + ".*");
+        }
+        PatternSet set = PatternSet.parse(patterns);
+        PatternSet lazy = PatternSet.parse(patterns, Limits.DEFAULT.withMaxDfaStates(16));
+        assertThat(set.lazy()).isEqualTo(false);
+        assertThat(lazy.lazy()).isEqualTo(true);
+        assertThat(lazy.stateCount()).isEqualTo(0);
+        Random random = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                sb.append("abc".charAt(random.nextInt(3)));
+            }
+            assertThat(lazy.matchAll(sb)).containsExactly(set.matchAll(sb));
+            assertThat(lazy.matchFirst(sb)).isEqualTo(set.matchFirst(sb));
+        }
+    }
+}
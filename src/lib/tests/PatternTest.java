@@ -0,0 +1,200 @@
+package lib.tests;
+
+import lib.Limits;
+import lib.Pattern;
+import lib.PatternCache;
+import lib.ResourceLimitException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PatternTest {
+
+    @Test
+    void testMatch() {
+        Pattern pattern = Pattern.compile("a(b|c)*d");
+        assertThat(pattern.match("abccd")).isEqualTo(true);
+        assertThat(pattern.match("aabcd")).isEqualTo(false);
+        assertThat(pattern.pattern()).isEqualTo("a(b|c)*d");
+
+        // DFAの状態数が上限を超えるパターンはPike VMで照合する
+        pattern = Pattern.compile("(a|b)*a" + "(a|b)".repeat(14));
+        assertThat(pattern.match("a" + "b".repeat(14))).isEqualTo(true);
+        assertThat(pattern.match("b".repeat(15))).isEqualTo(false);
+    }
+
+    @Test
+    void testLimits() {
+        // 上限を超えるとResourceLimitExceptionを投げる
+        assertThatThrownBy(() -> Pattern.compile("a".repeat(50), Limits.DEFAULT.withMaxPatternLength(10)))
+                .isInstanceOf(ResourceLimitException.class)
+                .extracting(e -> ((ResourceLimitException) e).getKind())
+                .isEqualTo(ResourceLimitException.Kind.PATTERN_LENGTH);
+        assertThatThrownBy(() -> Pattern.compile("(ab){30}", Limits.DEFAULT.withMaxNfaNodes(50)))
+                .extracting(e -> ((ResourceLimitException) e).getKind())
+                .isEqualTo(ResourceLimitException.Kind.NFA_NODES);
+        // キャプチャつきの命令列は繰り返しを展開するので、その大きさもコンパイルするときに調べる
+        assertThat(Pattern.compile("x\\d{1,500}", Limits.DEFAULT.withMaxNfaNodes(200)).match("x123")).isEqualTo(true);
+        assertThatThrownBy(() -> Pattern.compile("(x)\\d{1,500}", Limits.DEFAULT.withMaxNfaNodes(200)))
+                .extracting(e -> ((ResourceLimitException) e).getKind())
+                .isEqualTo(ResourceLimitException.Kind.NFA_NODES);
+        assertThatThrownBy(() -> Pattern.compile("(ab){5000}"))
+                .extracting(e -> ((ResourceLimitException) e).getKind())
+                .isEqualTo(ResourceLimitException.Kind.REPETITION);
+
+        // 回数を数えられない繰り返しも、大きすぎなければ展開してDFAで照合する
+        Pattern rule = Pattern.compile("([a-z]{2,20}\\.){1,5}com");
+        assertThat(rule.match("mail.example.com")).isEqualTo(true);
+        assertThat(rule.match("a.com")).isEqualTo(false);
+        assertThat(Pattern.compile("(ab){34}").match("ab".repeat(34))).isEqualTo(true);
+        assertThat(Pattern.compile("(ab|cd){50}").match("abcd".repeat(25))).isEqualTo(true);
+
+        // 遅延DFAで照合しても、1回の照合の手間が上限を超えれば止まる
+        Pattern pattern = Pattern.compile("(a|b)*a(a|b){14}", Limits.DEFAULT.withMaxCacheBytes(4096).withMaxSteps(100000));
+        assertThat(pattern.match("a" + "b".repeat(14))).isEqualTo(true);
+        Random random = new Random(6);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            sb.append(random.nextBoolean() ? 'a' : 'b');
+        }
+        assertThatThrownBy(() -> pattern.match(sb))
+                .extracting(e -> ((ResourceLimitException) e).getKind())
+                .isEqualTo(ResourceLimitException.Kind.STEPS);
+    }
+
+    @Test
+    void testDegradeSameAsDFA() {
+        // DFAの状態数やキャッシュが足りなくても結果は同じ
+        // 遅延DFAは照合をまたいで使い回し、キャッシュが溢れ続けるとPike VMに切り替わる
+        Random random = new Random(7);
+        for (Limits limits : new Limits[]{Limits.DEFAULT.withMaxDfaStates(2), Limits.DEFAULT.withMaxDfaStates(2).withMaxCacheBytes(1)}) {
+            for (String re : new String[]{"(a|b)*a(a|b)(a|b)", "((a*)*)*b", "(a|ab)(c|bcd)(d*)", "[ab]{3,}a?b{0,2}"}) {
+                Pattern dfa = Pattern.compile(re);
+                Pattern degraded = Pattern.compile(re, limits);
+                for (int i = 0; i < 1000; i++) {
+                    StringBuilder sb = new StringBuilder();
+                    int length = random.nextInt(12);
+                    for (int j = 0; j < length; j++) {
+                        sb.append("abcd".charAt(random.nextInt(4)));
+                    }
+                    assertThat(degraded.match(sb)).isEqualTo(dfa.match(sb));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testCaptures() {
+        // one-passのパターンも、そうでないパターンも、グループの位置を使い回す配列に書く
+        Pattern pattern = Pattern.compile("(\\w+)@(\\w+)\\.com");
+        assertThat(pattern.groupCount()).isEqualTo(2);
+        int[] offsets = new int[6];
+        assertThat(pattern.match("user@example.com", offsets)).isEqualTo(true);
+        assertThat(offsets).containsExactly(0, 16, 0, 4, 5, 12);
+        assertThat(pattern.match("me@x.com", offsets)).isEqualTo(true);
+        assertThat(offsets).containsExactly(0, 8, 0, 2, 3, 4);
+        assertThat(pattern.match("me@x.org", offsets)).isEqualTo(false);
+
+        pattern = Pattern.compile("(a|ab)(c|bcd)(d*)");
+        offsets = new int[8];
+        assertThat(pattern.match("abcd", offsets)).isEqualTo(true);
+        assertThat(offsets).containsExactly(0, 4, 0, 1, 1, 4, 4, 4);
+
+        // 一致に加わらなかったグループは-1
+        pattern = Pattern.compile("(a)|(b)");
+        offsets = new int[6];
+        assertThat(pattern.match("b", offsets)).isEqualTo(true);
+        assertThat(offsets).containsExactly(0, 1, -1, -1, 0, 1);
+
+        // 回数を数える繰り返しも、キャプチャを取るときは展開する
+        pattern = Pattern.compile("x(\\d{1,500})");
+        offsets = new int[4];
+        assertThat(pattern.match("x123", offsets)).isEqualTo(true);
+        assertThat(offsets).containsExactly(0, 4, 1, 4);
+
+        // 長い正規表現でもキャプチャつきの命令列を作るときにスタックがあふれない
+        pattern = Pattern.compile("(a)" + "[bc]".repeat(5000));
+        offsets = new int[4];
+        assertThat(pattern.match("a" + "b".repeat(5000), offsets)).isEqualTo(true);
+        assertThat(offsets).containsExactly(0, 5001, 0, 1);
+
+        assertThatThrownBy(() -> Pattern.compile("(a)(b)").match("ab", new int[4]))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testCapturesSameAsRegex() {
+        // 空文字列に一致しない繰り返しだけなら、java.util.regexと同じ位置になる
+        Random random = new Random(8);
+        for (String re : new String[]{"(a|b)*(ab)(b+)", "((a|b)c)+", "(a+)(a?)(b|ab)", "([ab]{1,3})([ab]{2})c?", "x(\\d+)(\\.(\\d+))?"}) {
+            Pattern pattern = Pattern.compile(re);
+            java.util.regex.Pattern expected = java.util.regex.Pattern.compile(re);
+            int[] offsets = new int[2 * (pattern.groupCount() + 1)];
+            for (int i = 0; i < 1000; i++) {
+                StringBuilder sb = new StringBuilder();
+                int length = random.nextInt(10);
+                for (int j = 0; j < length; j++) {
+                    sb.append("abcx1.".charAt(random.nextInt(6)));
+                }
+                java.util.regex.Matcher matcher = expected.matcher(sb);
+                assertThat(pattern.match(sb, offsets)).isEqualTo(matcher.matches());
+                if (matcher.matches()) {
+                    for (int g = 0; g <= pattern.groupCount(); g++) {
+                        assertThat(offsets[2 * g]).isEqualTo(matcher.start(g));
+                        assertThat(offsets[2 * g + 1]).isEqualTo(matcher.end(g));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testCacheEviction() {
+        // 上限を超えたら最も長く使われていないものを捨てる
+        PatternCache cache = new PatternCache(2);
+        Pattern ab = cache.get("ab*");
+        cache.get("c");
+        cache.get("ab*");
+        cache.get("d");
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get("ab*")).isSameAs(ab);
+    }
+
+    @Test
+    void testCacheSingleFlight() throws Exception {
+        // 同時に求めても同じPatternが返る
+        PatternCache cache = new PatternCache();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Pattern>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(executor.submit(() -> cache.get("a(b|c)*d")));
+            }
+            Set<Pattern> patterns = new HashSet<>();
+            for (Future<Pattern> future : futures) {
+                patterns.add(future.get());
+            }
+            assertThat(patterns).hasSize(1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testCacheFailure() {
+        // コンパイルに失敗したパターンはキャッシュに残らない
+        PatternCache cache = new PatternCache();
+        assertThatThrownBy(() -> cache.get("(a")).isInstanceOf(RuntimeException.class);
+        assertThat(cache.size()).isEqualTo(0);
+    }
+}
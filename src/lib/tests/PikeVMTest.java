@@ -0,0 +1,142 @@
+package lib.tests;
+
+import lib.AST;
+import lib.NFA;
+import lib.PikeVM;
+import lib.Prog;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PikeVMTest {
+
+    @Test
+    void testCompile() {
+        // a(b|c)*d の命令列
+        Prog prog = Prog.compile(AST.parse("a(b|c)*d"));
+        assertThat(prog.toString()).isEqualTo("""
+                0: char a
+                1: split 2, 7
+                2: split 3, 5
+                3: char b
+                4: jmp 6
+                5: char c
+                6: jmp 1
+                7: char d
+                8: match
+                """);
+    }
+
+    @Test
+    void testMatch() {
+        PikeVM vm = PikeVM.fromAST(AST.parse("a(b|c)*d"));
+        assertThat(vm.match("ad")).isEqualTo(true);
+        assertThat(vm.match("abd")).isEqualTo(true);
+        assertThat(vm.match("abccd")).isEqualTo(true);
+        assertThat(vm.match("abccccccde")).isEqualTo(false);
+        assertThat(vm.match("aabcd")).isEqualTo(false);
+
+        vm = PikeVM.fromAST(AST.parse("(ab|c)d*"));
+        assertThat(vm.match("abd")).isEqualTo(true);
+        assertThat(vm.match("cddddd")).isEqualTo(true);
+        assertThat(vm.match("acd")).isEqualTo(false);
+    }
+
+    @Test
+    void testSameAsNFA() {
+        // ランダムな入力でNFAと結果が一致する
+        Random random = new Random(1);
+        for (String re : new String[]{"(a|b)*a(a|b)(a|b)", "((a*)*)*b", "(a|ab)(c|bcd)(d*)"}) {
+            NFA nfa = NFA.fromAST(AST.parse(re));
+            PikeVM vm = PikeVM.fromAST(AST.parse(re));
+            for (int i = 0; i < 1000; i++) {
+                StringBuilder sb = new StringBuilder();
+                int length = random.nextInt(10);
+                for (int j = 0; j < length; j++) {
+                    sb.append("abcd".charAt(random.nextInt(4)));
+                }
+                assertThat(vm.match(sb)).isEqualTo(nfa.match(sb));
+            }
+        }
+    }
+
+    @Test
+    void testCountedRepeat() {
+        // 展開の上限を超える繰り返しは1命令になり、Pike VMが回数を数える
+        Prog prog = Prog.compile(AST.parse("a[bc]{2,300}d"));
+        assertThat(prog.toString()).isEqualTo("""
+                0: char a
+                1: repeat [bc]{2,300}
+                2: char d
+                3: match
+                """);
+        PikeVM vm = new PikeVM(prog);
+        assertThat(vm.match("abd")).isEqualTo(false);
+        assertThat(vm.match("abcd")).isEqualTo(true);
+        assertThat(vm.match("a" + "bc".repeat(150) + "d")).isEqualTo(true);
+        assertThat(vm.match("a" + "bc".repeat(150) + "bd")).isEqualTo(false);
+
+        vm = PikeVM.fromAST(AST.parse("x{3,1000000}y"));
+        assertThat(vm.match("x".repeat(1000000) + "y")).isEqualTo(true);
+        assertThat(vm.match("xxy")).isEqualTo(false);
+    }
+
+    @Test
+    void testCountedRepeatSameAsUnrolled() {
+        // 数えても展開しても結果は同じ
+        Random random = new Random(2);
+        for (String re : new String[]{"(a|b)*a[ab]{2,5}", "(a{1,3}b)*", "[ab]{3,}a?b{0,2}", "(a{2}|b{1,4})+"}) {
+            PikeVM counted = new PikeVM(Prog.compile(AST.parse(re), 0));
+            PikeVM unrolled = new PikeVM(Prog.compile(AST.parse(re), Integer.MAX_VALUE));
+            for (int i = 0; i < 1000; i++) {
+                StringBuilder sb = new StringBuilder();
+                int length = random.nextInt(12);
+                for (int j = 0; j < length; j++) {
+                    sb.append("abc".charAt(random.nextInt(3)));
+                }
+                assertThat(counted.match(sb)).isEqualTo(unrolled.match(sb));
+            }
+        }
+    }
+
+    @Test
+    void testCaptures() {
+        // グループの前後にSAVE命令を置き、スレッドごとに位置を記録する
+        Prog prog = Prog.compile(AST.parse("(a|b)*(c)"), 100, true);
+        assertThat(prog.toString()).isEqualTo("""
+                0: save 0
+                1: split 2, 9
+                2: save 2
+                3: split 4, 6
+                4: char a
+                5: jmp 7
+                6: char b
+                7: save 3
+                8: jmp 1
+                9: save 4
+                10: char c
+                11: save 5
+                12: save 1
+                13: match
+                """);
+        PikeVM vm = new PikeVM(prog);
+        int[] offsets = new int[6];
+        assertThat(vm.match("abc", offsets)).isEqualTo(true);
+        assertThat(offsets).containsExactly(0, 3, 1, 2, 2, 3);
+        assertThat(vm.match("c", offsets)).isEqualTo(true);
+        assertThat(offsets).containsExactly(0, 1, -1, -1, 0, 1);
+        assertThat(vm.match("abd", offsets)).isEqualTo(false);
+
+        // 左の選択肢と長い繰り返しが優先される
+        vm = new PikeVM(Prog.compile(AST.parse("(a|ab)(c|bcd)(d*)"), 100, true));
+        offsets = new int[8];
+        assertThat(vm.match("abcd", offsets)).isEqualTo(true);
+        assertThat(offsets).containsExactly(0, 4, 0, 1, 1, 4, 4, 4);
+        vm = new PikeVM(Prog.compile(AST.parse("(a*)(a*)"), 100, true));
+        offsets = new int[6];
+        assertThat(vm.match("aaa", offsets)).isEqualTo(true);
+        assertThat(offsets).containsExactly(0, 3, 0, 3, 3, 3);
+    }
+}
@@ -0,0 +1,75 @@
+package lib.tests;
+
+import lib.AST;
+import lib.NFA;
+import lib.Searcher;
+import lib.Searcher.Match;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SearcherTest {
+
+    static Match bruteForce(NFA nfa, String s, int from) {
+        // 開始位置を左から試し、最初に見つかった開始位置での最長の一致
+        for (int start = from; start <= s.length(); start++) {
+            int end = -1;
+            for (int i = start; i <= s.length(); i++) {
+                if (nfa.match(s.substring(start, i))) {
+                    end = i;
+                }
+            }
+            if (end >= 0) {
+                return new Match(start, end);
+            }
+        }
+        return null;
+    }
+
+    @Test
+    void testFind() {
+        Searcher searcher = Searcher.fromAST(AST.parse("a(b|c)*d"));
+        assertThat(searcher.find("xxabcbdyy")).isEqualTo(new Match(2, 7));
+        assertThat(searcher.find("xxabcbdyyad", 3)).isEqualTo(new Match(9, 11));
+        assertThat(searcher.find("xxabcb")).isNull();
+
+        // 最も左から始まる一致を、終わりが先に来る一致より優先する
+        searcher = Searcher.fromAST(AST.parse("abcd|c"));
+        assertThat(searcher.find("abcd")).isEqualTo(new Match(0, 4));
+    }
+
+    @Test
+    void testFindAll() {
+        Searcher searcher = Searcher.fromAST(AST.parse("ab*"));
+        assertThat(searcher.findAll("xabbbyaab")).containsExactly(new Match(1, 5), new Match(6, 7), new Match(7, 9));
+
+        // 空の一致の後は1文字進める
+        searcher = Searcher.fromAST(AST.parse("b*"));
+        assertThat(searcher.findAll("abba")).containsExactly(new Match(0, 0), new Match(1, 3), new Match(3, 3), new Match(4, 4));
+    }
+
+    @Test
+    void testSameAsBruteForce() {
+        // キャッシュが小さく作り直しが起きても結果は変わらない
+        Random random = new Random(1);
+        for (String re : new String[]{"(a|b)*a(a|b)", "(a|ab)(c|bcd)(d*)", "ab|b(c|d)*a", "(ab)*"}) {
+            NFA nfa = NFA.fromAST(AST.parse(re));
+            Searcher searcher = Searcher.fromAST(AST.parse(re));
+            Searcher small = Searcher.fromAST(AST.parse(re), 3);
+            for (int i = 0; i < 500; i++) {
+                StringBuilder sb = new StringBuilder();
+                int length = random.nextInt(12);
+                for (int j = 0; j < length; j++) {
+                    sb.append("abcd".charAt(random.nextInt(4)));
+                }
+                String s = sb.toString();
+                int from = random.nextInt(length + 1);
+                Match expected = bruteForce(nfa, s, from);
+                assertThat(searcher.find(s, from)).isEqualTo(expected);
+                assertThat(small.find(s, from)).isEqualTo(expected);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package lib.tests;
+
+import lib.AST;
+import lib.DFA;
+import lib.StreamMatcher;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamMatcherTest {
+
+    static final String TEXT = "ERRORあab\nINFO\nERRORあ\r\nERRORあbbb";
+
+    @Test
+    void testFeedChars() {
+        // 行の途中で断片が切れても状態を持ち越す
+        List<String> lines = new ArrayList<>();
+        StreamMatcher matcher = new StreamMatcher(DFA.fromAST(AST.parse("ERRORあ(a|b)*")),
+                (line, start, end) -> lines.add(line + ":" + start + "-" + end));
+        matcher.feed(CharBuffer.wrap(TEXT, 0, 7));
+        matcher.feed(TEXT.substring(7));
+        matcher.finish();
+        assertThat(lines).containsExactly("0:0-8", "3:22-31");
+        assertThat(matcher.matchedLines()).isEqualTo(2);
+    }
+
+    @Test
+    void testFeedBytes() {
+        // UTF-8の文字の途中で断片が切れても読める
+        List<String> lines = new ArrayList<>();
+        StreamMatcher matcher = new StreamMatcher(DFA.fromAST(AST.parse("ERRORあ(a|b)*")),
+                (line, start, end) -> lines.add(line + ":" + start + "-" + end));
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            matcher.feed(ByteBuffer.wrap(bytes, i, 1));
+        }
+        matcher.finish();
+        assertThat(lines).containsExactly("0:0-10", "3:26-37");
+    }
+
+    @Test
+    void testScanFile() throws IOException {
+        Path path = Files.createTempFile("regj", ".log");
+        try {
+            Files.writeString(path, TEXT);
+            List<Long> lines = new ArrayList<>();
+            try (FileChannel channel = FileChannel.open(path)) {
+                long count = StreamMatcher.scan(DFA.fromAST(AST.parse("ERRORあ(a|b)*")), channel,
+                        (line, start, end) -> lines.add(line));
+                assertThat(count).isEqualTo(2);
+            }
+            assertThat(lines).containsExactly(0L, 3L);
+        } finally {
+            Files.delete(path);
+        }
+    }
+}